@@ -0,0 +1,87 @@
+package image.compress.imagecompress;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Synthetic, deterministic test images for the benchmarks. The same content type and size always
+ * produce the same pixels, so results can be compared between runs and machines.
+ */
+public final class BenchmarkImages {
+    private static final long SEED = 0x5EED;
+
+    /**
+     * The kinds of content, from the cheapest to encode to the most expensive.
+     */
+    public enum Content {
+        /**
+         * One colour: every block has only a DC coefficient.
+         */
+        FLAT,
+        /**
+         * Smooth gradients with some shapes, fine texture and sensor-like noise, like a photograph.
+         */
+        GRADIENT,
+        /**
+         * Uniform random pixels: nearly every coefficient survives quantization.
+         */
+        NOISY
+    }
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Parses a resolution written as {@code WIDTHxHEIGHT}.
+     */
+    public static int[] parseResolution(String resolution) {
+        int x = resolution.indexOf('x');
+        return new int[]{Integer.parseInt(resolution.substring(0, x)), Integer.parseInt(resolution.substring(x + 1))};
+    }
+
+    public static BufferedImage create(Content content, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        Random random = new Random(SEED);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = switch (content) {
+                    case FLAT -> 0x6080A0;
+                    case NOISY -> random.nextInt(1 << 24);
+                    case GRADIENT -> photographic(x, y, width, height, random);
+                };
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static int photographic(int x, int y, int width, int height, Random random) {
+        double u = (double) x / width;
+        double v = (double) y / height;
+        // Sky to ground gradient
+        double red = 70 + 120 * v;
+        double green = 110 + 60 * Math.sin(3 * u + v);
+        double blue = 200 - 140 * v;
+        // A few hard edged shapes
+        double dx = u - 0.35;
+        double dy = v - 0.55;
+        if (dx * dx + dy * dy < 0.02) {
+            red = 220;
+            green = 60;
+            blue = 40;
+        }
+        if (u > 0.6 && u < 0.8 && v > 0.3 && v < 0.7) {
+            red *= 0.5;
+            green *= 0.5;
+            blue *= 0.5;
+        }
+        // Fine texture and noise
+        double texture = 12 * Math.sin(x * 0.7) * Math.sin(y * 0.9) + random.nextGaussian() * 4;
+        return (clamp(red + texture) << 16) | (clamp(green + texture) << 8) | clamp(blue + texture);
+    }
+
+    private static int clamp(double value) {
+        return Math.max(0, Math.min(255, (int) value));
+    }
+}
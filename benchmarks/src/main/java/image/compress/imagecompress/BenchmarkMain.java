@@ -0,0 +1,20 @@
+package image.compress.imagecompress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, so every result comes with its allocation rate.
+ * The arguments are passed on to JMH; a {@code -prof} option replaces the default profiler.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-prof")) {
+            options.add("-prof");
+            options.add("gc");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
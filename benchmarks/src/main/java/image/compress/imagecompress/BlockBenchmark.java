@@ -0,0 +1,95 @@
+package image.compress.imagecompress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+
+/**
+ * The per-block stages after the DCT, in nanoseconds per 8x8 luma block.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockBenchmark {
+    @Param({"FLAT", "GRADIENT", "NOISY"})
+    public BenchmarkImages.Content content;
+
+    private BlockSamples blocks;
+    private JpegCompress jpegCompress;
+    private final short[] quantized = new short[BlockSamples.BLOCKS * BLOCK_LENGTH];
+    private final int[] symbols = new int[BLOCK_LENGTH];
+    private final BitWriter writer = new BitWriter();
+
+    @Setup
+    public void setUp() {
+        blocks = new BlockSamples(content);
+        jpegCompress = new JpegCompress();
+    }
+
+    /**
+     * Quantization with the cached reciprocals, straight into zig-zag order.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BlockSamples.BLOCKS)
+    public short[] quantize() {
+        for (int b = 0; b < BlockSamples.BLOCKS; b++) {
+            blocks.quantizer.quantize(blocks.transformed[b], quantized, b * BLOCK_LENGTH);
+        }
+        return quantized;
+    }
+
+    /**
+     * Run-length encoding of the quantized blocks into packed symbols, with DC prediction.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BlockSamples.BLOCKS)
+    public int runLengthEncode() {
+        short[] coefficients = blocks.coefficients;
+        int total = 0;
+        int lastDc = 0;
+        for (int b = 0; b < BlockSamples.BLOCKS; b++) {
+            int offset = b * BLOCK_LENGTH;
+            total += jpegCompress.runLengthEncode(coefficients, offset, coefficients[offset] - lastDc, symbols);
+            lastDc = coefficients[offset];
+        }
+        return total;
+    }
+
+    /**
+     * Run-length encoding followed by Huffman coding with the standard tables and bit packing.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BlockSamples.BLOCKS)
+    public int entropyCode() throws IOException {
+        short[] coefficients = blocks.coefficients;
+        int lastDc = 0;
+        for (int b = 0; b < BlockSamples.BLOCKS; b++) {
+            int offset = b * BLOCK_LENGTH;
+            int count = jpegCompress.runLengthEncode(coefficients, offset, coefficients[offset] - lastDc, symbols);
+            jpegCompress.huffman(symbols, count, HuffmanTable.DC_LUMINANCE, HuffmanTable.AC_LUMINANCE, writer);
+            lastDc = coefficients[offset];
+        }
+        int size = writer.size();
+        // Empties the writer, so it does not grow from one invocation to the next
+        writer.writeTo(OutputStream.nullOutputStream());
+        return size;
+    }
+}
@@ -0,0 +1,49 @@
+package image.compress.imagecompress;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A fixed set of 8x8 luma blocks cut from a synthetic image, at every stage of the encoder,
+ * for the per-block benchmarks.
+ */
+final class BlockSamples {
+    static final int BLOCKS = 1024;
+    static final int QUALITY = 80;
+
+    // The luma plane the blocks are cut from, as the encoder hands it to the DCT
+    final Plane luma;
+    // Centered samples, as the DCT receives them
+    final double[][] samples = new double[BLOCKS][];
+    // AAN DCT output, as the quantizer receives it
+    final double[][] transformed = new double[BLOCKS][];
+    // Quantized coefficients in zig-zag order, as run-length encoding receives them
+    final short[] coefficients = new short[BLOCKS * QuantizedComponent.BLOCK_LENGTH];
+    final Quantizer quantizer;
+
+    BlockSamples(BenchmarkImages.Content content) {
+        // 32x32 blocks
+        int size = 256;
+        BufferedImage image = BenchmarkImages.create(content, size, size);
+        luma = new Plane(size, size);
+        ColorConverter.convert(image, ChromaSubsampling.GRAYSCALE, luma, null, null);
+
+        JpegCompress jpegCompress = new JpegCompress();
+        jpegCompress.setDctAlgorithm(DctAlgorithm.AAN);
+        quantizer = jpegCompress.quantizer(JpegCompress.LUMINANCE, QUALITY);
+        ForwardDCT dct = DctAlgorithm.AAN.engine();
+        int blocksWide = luma.blocksWide();
+        for (int b = 0; b < BLOCKS; b++) {
+            int origin = luma.blockOffset(b / blocksWide, b % blocksWide);
+            double[] block = new double[QuantizedComponent.BLOCK_LENGTH];
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    block[y * 8 + x] = luma.samples[origin + y * luma.stride + x] - 128;
+                }
+            }
+            samples[b] = block;
+            transformed[b] = block.clone();
+            dct.transform(transformed[b]);
+            quantizer.quantize(transformed[b], coefficients, b * QuantizedComponent.BLOCK_LENGTH);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package image.compress.imagecompress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The forward DCT engines, in nanoseconds per 8x8 block. For {@link #forwardDct} each block is copied into
+ * a scratch buffer before it is transformed in place; the copy is part of the measured time.
+ * {@link #forwardDctFromPlane} reads the blocks from the luma plane, as the encoder does.
+ * The fork enables the Vector API, so {@code VECTOR} is measured rather than its scalar fallback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class DctBenchmark {
+    @Param({"REFERENCE", "SEPARABLE", "AAN", "VECTOR"})
+    public DctAlgorithm algorithm;
+
+    @Param({"GRADIENT", "NOISY"})
+    public BenchmarkImages.Content content;
+
+    private ForwardDCT dct;
+    private BlockSamples blocks;
+    private final double[] block = new double[QuantizedComponent.BLOCK_LENGTH];
+
+    @Setup
+    public void setUp() {
+        dct = algorithm.engine();
+        blocks = new BlockSamples(content);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BlockSamples.BLOCKS)
+    public double forwardDct() {
+        double sum = 0;
+        for (double[] samples : blocks.samples) {
+            System.arraycopy(samples, 0, block, 0, block.length);
+            dct.transform(block);
+            sum += block[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BlockSamples.BLOCKS)
+    public double forwardDctFromPlane() {
+        Plane luma = blocks.luma;
+        int blocksWide = luma.blocksWide();
+        double sum = 0;
+        for (int b = 0; b < BlockSamples.BLOCKS; b++) {
+            dct.transform(luma.samples, luma.blockOffset(b / blocksWide, b % blocksWide), luma.stride, block);
+            sum += block[0];
+        }
+        return sum;
+    }
+}
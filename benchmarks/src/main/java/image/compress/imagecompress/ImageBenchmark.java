@@ -0,0 +1,157 @@
+package image.compress.imagecompress;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-image benchmarks: each stage of the encoder on a full image, and complete encodes.
+ * Besides the operations per second, every benchmark reports {@code megapixels} per second.
+ * Everything runs on one thread, so the numbers are per core. The fork enables the Vector API, which the encoder
+ * uses by default.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ImageBenchmark {
+    private static final int QUALITY = 80;
+
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String resolution;
+
+    @Param({"FLAT", "GRADIENT", "NOISY"})
+    public BenchmarkImages.Content content;
+
+    @Param({"420", "444"})
+    public String subsampling;
+
+    private BufferedImage image;
+    private ChromaSubsampling sampling;
+    private JpegCompress jpegCompress;
+    private Plane[] planes;
+    private TransformedImage transformed;
+    private QuantizedImage quantized;
+
+    /**
+     * Counts the pixels processed, so JMH reports them as a rate next to the operations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Pixels {
+        public double megapixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megapixels = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        int[] size = BenchmarkImages.parseResolution(resolution);
+        image = BenchmarkImages.create(content, size[0], size[1]);
+        sampling = ChromaSubsampling.parse(subsampling);
+
+        jpegCompress = new JpegCompress();
+        jpegCompress.setParallelism(1);
+        jpegCompress.setChromaSubsampling(sampling);
+        planes = JpegCompress.createPlanes(size[0], size[1], sampling,
+                (size[0] + sampling.horizontalFactor * 8 - 1) / (sampling.horizontalFactor * 8),
+                (size[1] + sampling.verticalFactor * 8 - 1) / (sampling.verticalFactor * 8));
+        transformed = jpegCompress.transform(image);
+        quantized = jpegCompress.quantize(transformed, QUALITY);
+    }
+
+    private double megapixels() {
+        return image.getWidth() * (double) image.getHeight() / 1e6;
+    }
+
+    /**
+     * RGB to YCbCr with the chroma subsampled in the same pass.
+     */
+    @Benchmark
+    public Plane[] colorConversion(Pixels pixels) {
+        // The converter adds to the chroma planes
+        for (int c = 1; c < planes.length; c++) {
+            Arrays.fill(planes[c].samples, 0);
+        }
+        ColorConverter.convert(image, sampling, planes[0], planes[1], planes[2]);
+        pixels.megapixels += megapixels();
+        return planes;
+    }
+
+    /**
+     * The same conversion with the scalar colour transform, to compare with {@link #colorConversion}.
+     */
+    @Benchmark
+    public Plane[] scalarColorConversion(Pixels pixels) {
+        for (int c = 1; c < planes.length; c++) {
+            Arrays.fill(planes[c].samples, 0);
+        }
+        ColorConverter.convert(image, sampling, planes[0], planes[1], planes[2], false);
+        pixels.megapixels += megapixels();
+        return planes;
+    }
+
+    /**
+     * Colour conversion and the forward DCT of every block.
+     */
+    @Benchmark
+    public TransformedImage transform(Pixels pixels) {
+        pixels.megapixels += megapixels();
+        return jpegCompress.transform(image);
+    }
+
+    /**
+     * Quantization and zig-zag ordering of cached DCT coefficients.
+     */
+    @Benchmark
+    public QuantizedImage quantize(Pixels pixels) {
+        pixels.megapixels += megapixels();
+        return jpegCompress.quantize(transformed, QUALITY);
+    }
+
+    /**
+     * Run-length and Huffman coding of a quantized image, and writing the JFIF file.
+     */
+    @Benchmark
+    public byte[] entropyCode(Pixels pixels) {
+        pixels.megapixels += megapixels();
+        return jpegCompress.compressImage(quantized);
+    }
+
+    /**
+     * A complete encode from the image to the JFIF file.
+     */
+    @Benchmark
+    public byte[] fullEncode(Pixels pixels) {
+        pixels.megapixels += megapixels();
+        return jpegCompress.compressImage(image, QUALITY);
+    }
+
+    /**
+     * A complete encode together with the half, quarter and eighth size renditions scaled in the DCT domain.
+     */
+    @Benchmark
+    public byte[][] renditions(Pixels pixels) {
+        pixels.megapixels += megapixels();
+        return jpegCompress.compressRenditions(image, QUALITY, 1, 2, 4, 8);
+    }
+}
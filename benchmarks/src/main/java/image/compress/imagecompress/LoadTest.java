@@ -0,0 +1,137 @@
+package image.compress.imagecompress;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local load test for {@link CompressionServer}. A number of clients post the same image in a closed loop
+ * and the harness reports the throughput, the client side p50 and p99 latencies and the answers by status.
+ * Without a URL it starts a server in the same process first.
+ * <p>
+ * Usage: {@code LoadTest [--url http://127.0.0.1:8080] [--image file.png] [--clients 16] [--requests 500]
+ * [--quality 80] [--encoders n] [--queue n]}
+ */
+public class LoadTest {
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        Path imageFile = null;
+        int clients = 16;
+        int requests = 500;
+        int quality = 80;
+        int encoders = Runtime.getRuntime().availableProcessors();
+        int queue = 2 * encoders;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url" -> url = args[++i];
+                case "--image" -> imageFile = Path.of(args[++i]);
+                case "--clients" -> clients = Integer.parseInt(args[++i]);
+                case "--requests" -> requests = Integer.parseInt(args[++i]);
+                case "--quality" -> quality = Integer.parseInt(args[++i]);
+                case "--encoders" -> encoders = Integer.parseInt(args[++i]);
+                case "--queue" -> queue = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        CompressionServer server = null;
+        if (url == null) {
+            server = new CompressionServer(0, encoders, queue);
+            server.start();
+            url = "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+        byte[] body = imageFile != null ? Files.readAllBytes(imageFile) : sampleImage();
+        try {
+            run(URI.create(url + "/compress?quality=" + quality), body, clients, requests);
+            HttpClient client = HttpClient.newHttpClient();
+            HttpRequest metrics = HttpRequest.newBuilder(URI.create(url + "/metrics")).build();
+            System.out.print("Server metrics:\n" + client.send(metrics, HttpResponse.BodyHandlers.ofString()).body());
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private static void run(URI uri, byte[] body, int clients, int requests) throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        LatencyRecorder latencies = new LatencyRecorder(requests);
+        AtomicInteger remaining = new AtomicInteger(requests);
+        int[] statuses = new int[600];
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            futures.add(pool.submit(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    long sent = System.nanoTime();
+                    int status;
+                    try {
+                        status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        status = 0;
+                    }
+                    if (status == 200) {
+                        latencies.record(System.nanoTime() - sent);
+                    }
+                    synchronized (statuses) {
+                        statuses[status]++;
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        System.out.printf(Locale.ROOT, "%d requests from %d clients in %.2f s: %.1f requests/s%n",
+                requests, clients, seconds, requests / seconds);
+        System.out.printf(Locale.ROOT, "Latency of successful requests: p50 %.1f ms, p99 %.1f ms%n",
+                latencies.percentile(50) / 1e6, latencies.percentile(99) / 1e6);
+        for (int status = 0; status < statuses.length; status++) {
+            if (statuses[status] > 0) {
+                System.out.println((status == 0 ? "connection errors" : "status " + status) + ": " + statuses[status]);
+            }
+        }
+    }
+
+    /**
+     * Creates a 1024x768 PNG with gradients and edges, so the encoder has realistic work to do.
+     */
+    private static byte[] sampleImage() throws IOException {
+        BufferedImage image = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int red = x * 255 / image.getWidth();
+                int green = y * 255 / image.getHeight();
+                int blue = ((x / 32 + y / 32) & 1) * 200;
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+package image.compress.imagecompress;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+
+/**
+ * Arai-Agui-Nakajima factorization of the DCT (the same flow graph as the IJG floating point DCT).
+ * It needs 5 multiplications per 1D transform, 80 per block. The price is that every coefficient
+ * comes out multiplied by {@code 8 * AAN[u] * AAN[v]}; instead of undoing that here,
+ * the factor is reported through {@link #outputScale()} and folded into the quantization divisors.
+ */
+public class AanDCT implements ForwardDCT {
+    private static final double[] SCALE = precomputeScale();
+
+    private static double[] precomputeScale() {
+        double[] aan = new double[BLOCK_SIZE];
+        aan[0] = 1.0;
+        for (int k = 1; k < BLOCK_SIZE; k++) {
+            aan[k] = Math.cos(k * Math.PI / 16) * Math.sqrt(2);
+        }
+
+        double[] scale = new double[BLOCK_SIZE * BLOCK_SIZE];
+        for (int u = 0; u < BLOCK_SIZE; u++) {
+            for (int v = 0; v < BLOCK_SIZE; v++) {
+                scale[u * BLOCK_SIZE + v] = 8 * aan[u] * aan[v];
+            }
+        }
+        return scale;
+    }
+
+    @Override
+    public void transform(double[] block) {
+        // Rows first, then columns
+        transformRows(block);
+        for (int column = 0; column < BLOCK_SIZE; column++) {
+            transformLine(block, column, BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * Applies only the 1D transform of every row, which {@link VectorAanDCT} uses to build its matrix.
+     */
+    void transformRows(double[] block) {
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            transformLine(block, row * BLOCK_SIZE, 1);
+        }
+    }
+
+    @Override
+    public double[] outputScale() {
+        return SCALE;
+    }
+
+    /**
+     * Applies the scaled 1D AAN transform to the 8 values starting at {@code offset} and spaced {@code step} apart.
+     */
+    private static void transformLine(double[] block, int offset, int step) {
+        int i0 = offset;
+        int i1 = offset + step;
+        int i2 = offset + 2 * step;
+        int i3 = offset + 3 * step;
+        int i4 = offset + 4 * step;
+        int i5 = offset + 5 * step;
+        int i6 = offset + 6 * step;
+        int i7 = offset + 7 * step;
+
+        double tmp0 = block[i0] + block[i7];
+        double tmp7 = block[i0] - block[i7];
+        double tmp1 = block[i1] + block[i6];
+        double tmp6 = block[i1] - block[i6];
+        double tmp2 = block[i2] + block[i5];
+        double tmp5 = block[i2] - block[i5];
+        double tmp3 = block[i3] + block[i4];
+        double tmp4 = block[i3] - block[i4];
+
+        // Even part
+        double tmp10 = tmp0 + tmp3;
+        double tmp13 = tmp0 - tmp3;
+        double tmp11 = tmp1 + tmp2;
+        double tmp12 = tmp1 - tmp2;
+
+        block[i0] = tmp10 + tmp11;
+        block[i4] = tmp10 - tmp11;
+
+        double z1 = (tmp12 + tmp13) * 0.707106781;
+        block[i2] = tmp13 + z1;
+        block[i6] = tmp13 - z1;
+
+        // Odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+
+        double z5 = (tmp10 - tmp12) * 0.382683433;
+        double z2 = 0.541196100 * tmp10 + z5;
+        double z4 = 1.306562965 * tmp12 + z5;
+        double z3 = tmp11 * 0.707106781;
+
+        double z11 = tmp7 + z3;
+        double z13 = tmp7 - z3;
+
+        block[i5] = z13 + z2;
+        block[i3] = z13 - z2;
+        block[i1] = z11 + z4;
+        block[i7] = z11 - z4;
+    }
+}
@@ -0,0 +1,411 @@
+package image.compress.imagecompress;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless command line entry point that compresses files and whole directory trees.
+ * It does not touch any JavaFX class, so it runs without JavaFX on the class path.
+ * <p>
+ * Decoding, encoding and writing run as separate stages connected by bounded queues, so each stage works on
+ * a different file at the same time and a slow stage holds back the others instead of piling up decoded images.
+ * Reading and writing are I/O bound and run on their own threads. Encoding is CPU bound and runs on one
+ * thread per core, each with its own single-threaded encoder.
+ */
+public class BatchCompressor {
+    private static final Logger LOGGER = Logger.getLogger(BatchCompressor.class.getName());
+    private static final int DEFAULT_COMPRESSION_LEVEL = 80;
+    // How often a stage that is being stopped checks whether the next stage is still running
+    private static final long STOP_POLL_MILLIS = 100;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: BatchCompressor [options] <file or directory>...",
+            "  -o <directory>        where the compressed files are written (required)",
+            "  -q <level>            compression level from 1 to 99 (default "
+                    + DEFAULT_COMPRESSION_LEVEL + ")",
+            "  --max-size <bytes>    compress every file at the highest level that fits, instead of -q",
+            "  --subsampling <mode>  444, 422, 420 or gray (default 420)",
+            "  --optimize            build optimized Huffman tables for every image",
+            "  --restart <mcus>      restart interval in MCUs (default 0, none)",
+            "  --progressive         write progressive files with the successive approximation scans",
+            "  --scans <file>        write progressive files with the scans of a cjpeg-style scan script",
+            "  --encoders <n>        encoding threads (default: number of processors)",
+            "  --io-threads <n>      threads for reading and for writing each (default 4)",
+            "  --verbose             print the time spent in every encoder stage");
+
+    private final Path outputDirectory;
+    private final int compressionLevel;
+    private final ChromaSubsampling subsampling;
+    private final boolean optimizeHuffman;
+    private final int restartInterval;
+    private final int encoders;
+    private final int ioThreads;
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    // null unless the stages are measured
+    private EncoderMetrics metrics;
+    // 0 means that every file is compressed at the compression level
+    private long maxSize;
+    // null means that the files are sequential
+    private ScanScript scanScript;
+
+    /**
+     * One file on its way through the stages.
+     *
+     * @param source the file to compress
+     * @param target where the compressed file goes
+     * @param image  the decoded image, once it has been read
+     * @param data   the compressed file, once it has been encoded
+     */
+    private record Job(Path source, Path target, BufferedImage image, byte[] data) {
+    }
+
+    // Tells a stage that no more jobs are coming
+    private static final Job END = new Job(null, null, null, null);
+
+    public BatchCompressor(Path outputDirectory, int compressionLevel, ChromaSubsampling subsampling,
+                           boolean optimizeHuffman, int restartInterval, int encoders, int ioThreads) {
+        this.outputDirectory = outputDirectory;
+        this.compressionLevel = compressionLevel;
+        this.subsampling = subsampling;
+        this.optimizeHuffman = optimizeHuffman;
+        this.restartInterval = restartInterval;
+        this.encoders = encoders;
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * Measures the encoder stages of every file, shared by all encoding threads.
+     *
+     * @param metrics the metrics to add to, or {@code null} to measure nothing
+     */
+    public void setMetrics(EncoderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compresses every file at the highest compression level whose file fits the size, instead of at a fixed level.
+     *
+     * @param maxSize the largest file size in bytes, or 0 to use the compression level
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Writes progressive files with the given scans instead of sequential files.
+     *
+     * @param scanScript the scans of every file, or {@code null} for sequential files
+     */
+    public void setScanScript(ScanScript scanScript) {
+        this.scanScript = scanScript;
+    }
+
+    public static void main(String[] args) {
+        Path output = null;
+        int level = DEFAULT_COMPRESSION_LEVEL;
+        ChromaSubsampling subsampling = ChromaSubsampling.YUV420;
+        boolean optimize = false;
+        int restart = 0;
+        long maxSize = 0;
+        ScanScript scans = null;
+        int encoders = Runtime.getRuntime().availableProcessors();
+        int ioThreads = 4;
+        boolean verbose = false;
+        List<Path> inputs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-o" -> output = Path.of(args[++i]);
+                    case "-q" -> level = Integer.parseInt(args[++i]);
+                    case "--max-size" -> maxSize = Long.parseLong(args[++i]);
+                    case "--subsampling" -> subsampling = ChromaSubsampling.parse(args[++i]);
+                    case "--optimize" -> optimize = true;
+                    case "--restart" -> restart = Integer.parseInt(args[++i]);
+                    case "--progressive" -> scans = ScanScript.SUCCESSIVE_APPROXIMATION;
+                    case "--scans" -> scans = ScanScript.parse(Files.readString(Path.of(args[++i])));
+                    case "--encoders" -> encoders = Integer.parseInt(args[++i]);
+                    case "--io-threads" -> ioThreads = Integer.parseInt(args[++i]);
+                    case "--verbose" -> verbose = true;
+                    default -> inputs.add(Path.of(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            output = null;
+        } catch (IOException e) {
+            System.err.println("Cannot read the scan script: " + e.getMessage());
+            output = null;
+        }
+        if (output == null || inputs.isEmpty() || level < 1 || level > 99 || encoders < 1 || ioThreads < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        BatchCompressor compressor = new BatchCompressor(output, level, subsampling, optimize, restart,
+                encoders, ioThreads);
+        compressor.setMaxSize(maxSize);
+        compressor.setScanScript(scans);
+        if (verbose) {
+            compressor.setMetrics(new EncoderMetrics());
+        }
+        try {
+            boolean success = compressor.run(inputs);
+            System.exit(success ? 0 : 1);
+        } catch (IOException | InterruptedException | IllegalStateException e) {
+            LOGGER.log(Level.SEVERE, "Batch compression failed", e);
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Compresses the given files, and every image file below the given directories.
+     * The output keeps the layout of each directory below the output directory.
+     *
+     * @param inputs files and directories
+     * @return {@code true} if every file was compressed
+     * @throws IOException          if a directory cannot be listed
+     * @throws InterruptedException if the thread is interrupted while waiting for the stages
+     */
+    public boolean run(List<Path> inputs) throws IOException, InterruptedException {
+        List<Job> jobs = collectJobs(inputs);
+        long start = System.nanoTime();
+
+        BlockingQueue<Job> pending = new LinkedBlockingQueue<>(jobs);
+        // Small queues: every decoded image waiting here holds its whole raster in memory
+        BlockingQueue<Job> decoded = new ArrayBlockingQueue<>(encoders);
+        BlockingQueue<Job> encoded = new ArrayBlockingQueue<>(2 * encoders);
+
+        ExecutorService readers = Executors.newFixedThreadPool(ioThreads);
+        ExecutorService encoding = Executors.newFixedThreadPool(encoders);
+        ExecutorService writers = Executors.newFixedThreadPool(ioThreads);
+        try {
+            List<Future<?>> reading = submit(readers, ioThreads, () -> read(pending, decoded));
+            List<Future<?>> encodingTasks = submit(encoding, encoders, () -> encode(decoded, encoded));
+            List<Future<?>> writing = submit(writers, ioThreads, () -> write(encoded));
+
+            // Each stage is told to stop once the stage before it has finished, even if it failed,
+            // so the threads of the next stage do not wait for jobs that never come
+            try {
+                await(reading);
+            } finally {
+                stop(decoded, encodingTasks);
+            }
+            try {
+                await(encodingTasks);
+            } finally {
+                stop(encoded, writing);
+            }
+            await(writing);
+        } finally {
+            readers.shutdownNow();
+            encoding.shutdownNow();
+            writers.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%d files compressed, %d failed in %.2f s%n",
+                completed.get(), failed.get(), seconds);
+        System.out.printf(Locale.ROOT, "%.1f files/s, %.1f MB/s read, %.1f MB/s written%n",
+                completed.get() / seconds, bytesRead.get() / 1e6 / seconds, bytesWritten.get() / 1e6 / seconds);
+        if (metrics != null) {
+            printStages(metrics.snapshot());
+        }
+        return failed.get() == 0;
+    }
+
+    /**
+     * Prints the time every encoder stage took, added up over all threads, how many blocks skipped the DCT,
+     * and the average file size.
+     */
+    private static void printStages(EncoderMetrics.Snapshot snapshot) {
+        for (EncoderMetrics.Stage stage : EncoderMetrics.Stage.values()) {
+            long blocks = snapshot.blocks(stage);
+            if (blocks == 0) {
+                continue;
+            }
+            String unit = stage == EncoderMetrics.Stage.COLOR_CONVERSION ? "pixel" : "block";
+            System.out.printf(Locale.ROOT, "%-16s %8.2f s %8.1f ns/%s%n", stage.name().toLowerCase(Locale.ROOT),
+                    snapshot.nanos(stage) / 1e9, (double) snapshot.nanos(stage) / blocks, unit);
+        }
+        System.out.printf(Locale.ROOT, "%d uniform blocks, block cache hit rate %.1f%% of %d lookups%n",
+                snapshot.uniformBlocks(), snapshot.cacheHitRate() * 100, snapshot.cacheLookups());
+        System.out.printf(Locale.ROOT, "%.2f bits per pixel%n", snapshot.bitsPerPixel());
+    }
+
+    /**
+     * Lists the files to compress and where each of them goes.
+     */
+    private List<Job> collectJobs(List<Path> inputs) throws IOException {
+        Set<String> suffixes = Arrays.stream(ImageIO.getReaderFileSuffixes())
+                .map(suffix -> suffix.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        List<Job> jobs = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> files = Files.walk(input)) {
+                    files.filter(Files::isRegularFile)
+                            .filter(file -> suffixes.contains(suffix(file)))
+                            .sorted()
+                            .forEach(file -> jobs.add(new Job(file, target(input.relativize(file)), null, null)));
+                }
+            } else {
+                jobs.add(new Job(input, target(input.getFileName()), null, null));
+            }
+        }
+        return jobs;
+    }
+
+    private static String suffix(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private Path target(Path relative) {
+        String name = relative.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        return outputDirectory.resolve(relative).resolveSibling(base + ".jpg");
+    }
+
+    private interface StageLoop {
+        void run() throws InterruptedException;
+    }
+
+    private static List<Future<?>> submit(ExecutorService executor, int threads, StageLoop loop) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                loop.run();
+                return null;
+            }));
+        }
+        return futures;
+    }
+
+    private static void await(List<Future<?>> futures) throws InterruptedException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("A pipeline stage failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Puts one {@link #END} into the queue for every thread of the stage that takes from it. A full queue is only
+     * waited on while a thread of that stage is still running to empty it.
+     *
+     * @param queue     the queue the stage takes its jobs from
+     * @param consumers the threads of the stage
+     */
+    private static void stop(BlockingQueue<Job> queue, List<Future<?>> consumers) throws InterruptedException {
+        for (int i = 0; i < consumers.size(); i++) {
+            while (!queue.offer(END, STOP_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (consumers.stream().allMatch(Future::isDone)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stage 1: decodes files until there are none left.
+     */
+    private void read(BlockingQueue<Job> pending, BlockingQueue<Job> decoded) throws InterruptedException {
+        Job job;
+        while ((job = pending.poll()) != null) {
+            try {
+                bytesRead.addAndGet(Files.size(job.source()));
+                BufferedImage image = ImageIO.read(job.source().toFile());
+                if (image == null) {
+                    throw new IOException("Unsupported image format");
+                }
+                decoded.put(new Job(job.source(), job.target(), image, null));
+            } catch (IOException | RuntimeException e) {
+                // ImageIO plugins throw all kinds of runtime exceptions on corrupt files
+                fail(job, e);
+            }
+        }
+    }
+
+    /**
+     * Stage 2: encodes decoded images until it is told to stop.
+     */
+    private void encode(BlockingQueue<Job> decoded, BlockingQueue<Job> encoded) throws InterruptedException {
+        // Files are already encoded side by side, so each encoder keeps to its own thread
+        JpegCompress jpegCompress = new JpegCompress();
+        jpegCompress.setParallelism(1);
+        jpegCompress.setChromaSubsampling(subsampling);
+        jpegCompress.setOptimizeHuffman(optimizeHuffman);
+        jpegCompress.setRestartInterval(restartInterval);
+        jpegCompress.setScanScript(scanScript);
+        jpegCompress.setMetrics(metrics);
+
+        Job job;
+        while ((job = decoded.take()) != END) {
+            try {
+                byte[] data = maxSize > 0
+                        ? jpegCompress.compressToSize(job.image(), maxSize).data()
+                        : jpegCompress.compressImage(job.image(), compressionLevel);
+                encoded.put(new Job(job.source(), job.target(), null, data));
+            } catch (RuntimeException e) {
+                fail(job, e);
+            }
+        }
+    }
+
+    /**
+     * Stage 3: writes compressed files until it is told to stop.
+     */
+    private void write(BlockingQueue<Job> encoded) throws InterruptedException {
+        Job job;
+        while ((job = encoded.take()) != END) {
+            try {
+                Files.createDirectories(job.target().getParent());
+                Files.write(job.target(), job.data());
+                bytesWritten.addAndGet(job.data().length);
+                completed.incrementAndGet();
+            } catch (IOException | UncheckedIOException e) {
+                fail(job, e);
+            }
+        }
+    }
+
+    private void fail(Job job, Exception e) {
+        failed.incrementAndGet();
+        // The message of a runtime exception from a decoder is often just a number or missing
+        String reason = e instanceof IOException && e.getMessage() != null ? e.getMessage() : e.toString();
+        LOGGER.log(Level.WARNING, "Failed to compress " + job.source() + ": " + reason);
+    }
+}
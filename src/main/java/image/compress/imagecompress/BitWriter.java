@@ -0,0 +1,96 @@
+package image.compress.imagecompress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Packs variable-length codes into bytes for a JPEG entropy-coded segment.
+ * Bits are collected in a 64-bit accumulator and written out 32 at a time. Every 0xFF byte is followed
+ * by a stuffed 0x00 byte, so the decoder does not mistake it for a marker.
+ */
+public class BitWriter {
+    private byte[] bytes;
+    private int size;
+    private long accumulator;
+    private int bitCount;
+
+    public BitWriter() {
+        this(1 << 16);
+    }
+
+    public BitWriter(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    /**
+     * Appends the lowest {@code length} bits of {@code bits}, most significant bit first.
+     *
+     * @param bits   the bits to write; bits above {@code length} must be zero
+     * @param length the number of bits to write, between 0 and 31
+     */
+    public void writeBits(int bits, int length) {
+        accumulator = (accumulator << length) | bits;
+        bitCount += length;
+        if (bitCount >= 32) {
+            emitBytes();
+        }
+    }
+
+    /**
+     * Pads the last partial byte with 1 bits, as the JPEG standard requires before a marker.
+     */
+    public void flush() {
+        int padding = (8 - (bitCount & 7)) & 7;
+        writeBits((1 << padding) - 1, padding);
+        emitBytes();
+    }
+
+    /**
+     * Writes a marker (for example a restart marker) directly, without byte stuffing.
+     * The bit buffer must be flushed first.
+     */
+    public void writeMarker(int marker) {
+        ensureCapacity(2);
+        bytes[size++] = (byte) 0xFF;
+        bytes[size++] = (byte) marker;
+    }
+
+    private void emitBytes() {
+        ensureCapacity(16);
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            int b = (int) (accumulator >>> bitCount) & 0xFF;
+            bytes[size++] = (byte) b;
+            if (b == 0xFF) {
+                bytes[size++] = 0;
+            }
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+
+    /**
+     * Returns the number of complete bytes written so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Writes the complete bytes to {@code output} and removes them from the buffer.
+     * Bits that do not form a whole byte yet stay in the accumulator.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(bytes, 0, size);
+        size = 0;
+    }
+}
@@ -0,0 +1,187 @@
+package image.compress.imagecompress;
+
+import java.util.Arrays;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+
+/**
+ * Remembers the quantized coefficients of recently encoded blocks by their samples, so a block that repeats,
+ * as they do in screenshots and documents, is quantized from the cache instead of being transformed again.
+ * The entries are allocated up front, so looking up and adding blocks does not allocate. Once the cache is full,
+ * a new block replaces one that was not hit recently, chosen with the CLOCK approximation of LRU: every hit marks
+ * its entry, and the clock hand passes over marked entries, clearing the mark, until it finds one that is not.
+ * A block that keeps coming back, like a background tile, therefore stays however many other blocks go through.
+ * Each worker thread has its own cache, so it needs no locking.
+ */
+class BlockCache {
+    // Odd factors with well mixed bits, one per column, so equal samples in different columns hash differently
+    private static final int[] COLUMN_FACTORS = {
+            0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F, 0x165667B1, 0xD3A2646D, 0xFD7046C5, 0xB55A4F09
+    };
+
+    private int capacity;
+    // The samples and the quantized coefficients of every entry, 64 per entry, and what they were quantized with
+    private float[] samples = new float[0];
+    private short[] coefficients = new short[0];
+    private Quantizer[] quantizers = new Quantizer[0];
+    private int[] hashes = new int[0];
+    // Hash chains: the newest entry of every bucket, and for every entry the next one in its bucket, or -1
+    private int[] buckets = {-1};
+    private int[] next = new int[0];
+    // Set by a hit, cleared when the clock hand passes the entry
+    private boolean[] referenced = new boolean[0];
+    private int size;
+    // The entry the clock hand checks next once the cache is full
+    private int hand;
+
+    // The block selected by the last get, until the following put
+    private Quantizer probeQuantizer;
+    private float[] probeSamples;
+    private int probeOffset;
+    private int probeStride;
+    private int probeHash;
+
+    /**
+     * Sets the number of blocks kept. Changing the size empties the cache.
+     */
+    void setCapacity(int capacity) {
+        if (capacity == this.capacity) {
+            return;
+        }
+        this.capacity = capacity;
+        samples = new float[capacity * BLOCK_LENGTH];
+        coefficients = new short[capacity * BLOCK_LENGTH];
+        quantizers = new Quantizer[capacity];
+        hashes = new int[capacity];
+        next = new int[capacity];
+        referenced = new boolean[capacity];
+        // At most one entry per bucket on average
+        buckets = new int[Math.max(1, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1)];
+        Arrays.fill(buckets, -1);
+        size = 0;
+        hand = 0;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Looks up a block and copies its coefficients if it is cached. A block that is not cached stays selected
+     * for a following {@link #put}.
+     *
+     * @param quantizer    the quantizer the block is quantized with
+     * @param samples      the samples of the plane
+     * @param offset       the index of the top left sample of the block
+     * @param stride       the distance between two rows of the plane
+     * @param output       receives the cached coefficients in zig-zag order
+     * @param outputOffset the index in {@code output} of the first coefficient of the block
+     * @return {@code true} if the block was cached
+     */
+    boolean get(Quantizer quantizer, float[] samples, int offset, int stride, short[] output, int outputOffset) {
+        int hash = hash(quantizer, samples, offset, stride);
+        for (int entry = buckets[bucket(hash)]; entry >= 0; entry = next[entry]) {
+            if (hashes[entry] == hash && quantizers[entry] == quantizer && matches(entry, samples, offset, stride)) {
+                System.arraycopy(coefficients, entry * BLOCK_LENGTH, output, outputOffset, BLOCK_LENGTH);
+                referenced[entry] = true;
+                return true;
+            }
+        }
+        probeQuantizer = quantizer;
+        probeSamples = samples;
+        probeOffset = offset;
+        probeStride = stride;
+        probeHash = hash;
+        return false;
+    }
+
+    /**
+     * Adds the coefficients of the block selected by the last {@link #get}, in place of a block that was not hit
+     * recently if the cache is full.
+     *
+     * @param coefficients the quantized coefficients of the block in zig-zag order
+     * @param offset       the index of the first coefficient of the block
+     */
+    void put(short[] coefficients, int offset) {
+        if (capacity == 0) {
+            return;
+        }
+        int entry;
+        if (size < capacity) {
+            entry = size++;
+        } else {
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % capacity;
+            }
+            entry = hand;
+            hand = (hand + 1) % capacity;
+            unlink(entry);
+        }
+        referenced[entry] = false;
+        int start = entry * BLOCK_LENGTH;
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            System.arraycopy(probeSamples, probeOffset + row * probeStride, samples, start + row * BLOCK_SIZE,
+                    BLOCK_SIZE);
+        }
+        System.arraycopy(coefficients, offset, this.coefficients, start, BLOCK_LENGTH);
+        quantizers[entry] = probeQuantizer;
+        hashes[entry] = probeHash;
+        int bucket = bucket(probeHash);
+        next[entry] = buckets[bucket];
+        buckets[bucket] = entry;
+        // The plane should not be kept alive by the cache
+        probeSamples = null;
+    }
+
+    /**
+     * Hashes every row on its own, so the multiplications do not wait for each other, and then the rows.
+     */
+    private static int hash(Quantizer quantizer, float[] samples, int offset, int stride) {
+        int hash = System.identityHashCode(quantizer);
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            int rowStart = offset + row * stride;
+            int rowHash = 0;
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                rowHash += Float.floatToRawIntBits(samples[rowStart + column]) * COLUMN_FACTORS[column];
+            }
+            hash = 31 * hash + rowHash;
+        }
+        return hash;
+    }
+
+    private boolean matches(int entry, float[] samples, int offset, int stride) {
+        int start = entry * BLOCK_LENGTH;
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            int rowStart = offset + row * stride;
+            int entryRow = start + row * BLOCK_SIZE;
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                if (this.samples[entryRow + column] != samples[rowStart + column]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes an entry from the chain of its bucket before it is overwritten.
+     */
+    private void unlink(int entry) {
+        int bucket = bucket(hashes[entry]);
+        if (buckets[bucket] == entry) {
+            buckets[bucket] = next[entry];
+            return;
+        }
+        int previous = buckets[bucket];
+        while (next[previous] != entry) {
+            previous = next[previous];
+        }
+        next[previous] = next[entry];
+    }
+
+    private int bucket(int hash) {
+        return (hash ^ (hash >>> 16)) & (buckets.length - 1);
+    }
+}
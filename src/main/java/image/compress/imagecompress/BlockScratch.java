@@ -0,0 +1,17 @@
+package image.compress.imagecompress;
+
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+
+/**
+ * Working buffers for encoding one block at a time. Each worker thread keeps its own instance,
+ * so encoding a block does not allocate anything.
+ */
+class BlockScratch {
+    final double[] block = new double[BLOCK_LENGTH];
+    // A block never produces more than 64 symbols: the DC symbol plus at most one per AC coefficient
+    final int[] symbols = new int[BLOCK_LENGTH];
+    // Quantized blocks this thread encoded recently
+    final BlockCache blockCache = new BlockCache();
+    // Between the column and the row pass of a DctDownscaler
+    final double[] downscaled = new double[BLOCK_LENGTH];
+}
@@ -0,0 +1,55 @@
+package image.compress.imagecompress;
+
+import java.util.Locale;
+
+/**
+ * How the chroma planes are subsampled relative to the luma plane.
+ * The factors are the JPEG sampling factors of the Y component; Cb and Cr always use 1x1.
+ */
+public enum ChromaSubsampling {
+    /**
+     * Full resolution chroma.
+     */
+    YUV444(1, 1),
+    /**
+     * Chroma at half the horizontal resolution.
+     */
+    YUV422(2, 1),
+    /**
+     * Chroma at half the horizontal and half the vertical resolution.
+     */
+    YUV420(2, 2),
+    /**
+     * Luma only, written as a single component image.
+     */
+    GRAYSCALE(1, 1);
+
+    final int horizontalFactor;
+    final int verticalFactor;
+
+    ChromaSubsampling(int horizontalFactor, int verticalFactor) {
+        this.horizontalFactor = horizontalFactor;
+        this.verticalFactor = verticalFactor;
+    }
+
+    boolean hasChroma() {
+        return this != GRAYSCALE;
+    }
+
+    /**
+     * Parses the short names used on the command line and in requests: 444, 422, 420 or gray.
+     *
+     * @param name the short name, in any case
+     * @return the subsampling it stands for
+     * @throws IllegalArgumentException if the name is not one of the above
+     */
+    public static ChromaSubsampling parse(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "444" -> YUV444;
+            case "422" -> YUV422;
+            case "420" -> YUV420;
+            case "gray" -> GRAYSCALE;
+            default -> throw new IllegalArgumentException("Unknown subsampling: " + name);
+        };
+    }
+}
@@ -0,0 +1,281 @@
+package image.compress.imagecompress;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Converts the pixels of a {@link BufferedImage} to Y, Cb and Cr planes.
+ * Chroma is subsampled in the same pass: every pixel adds its share of the average to the chroma sample
+ * it belongs to, so full resolution chroma planes are never built. An image with an odd width or height
+ * counts its last column or row twice, as if the image was padded by repeating its edge.
+ * <p>
+ * The common image types are read straight from the arrays behind their raster, one row at a time.
+ * Every other type goes through {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}, which
+ * still converts a whole row per call. The colour transform uses the JFIF coefficients in 16.16 fixed point.
+ */
+public class ColorConverter {
+    private static final int SCALE_BITS = 16;
+    static final float INVERSE_SCALE = 1f / (1 << SCALE_BITS);
+
+    // JFIF RGB to YCbCr coefficients multiplied by 2^16
+    static final int Y_RED = 19595;
+    static final int Y_GREEN = 38470;
+    static final int Y_BLUE = 7471;
+    static final int CB_RED = -11059;
+    static final int CB_GREEN = -21709;
+    static final int CB_BLUE = 32768;
+    static final int CR_RED = 32768;
+    static final int CR_GREEN = -27439;
+    static final int CR_BLUE = -5329;
+
+    private final Plane y;
+    private final Plane cb;
+    private final Plane cr;
+    private final int horizontalShift;
+    private final int verticalShift;
+    private final boolean oddWidth;
+    private final int lastRow;
+    private final float chromaWeight;
+    private final boolean vectorized;
+    // The chroma of every pixel of a row, before it is added up; only used by the vectorized conversion
+    private final float[] blueRow;
+    private final float[] redRow;
+
+    private ColorConverter(int width, int height, ChromaSubsampling sampling, Plane y, Plane cb, Plane cr,
+                           boolean vectorized) {
+        this.y = y;
+        this.cb = cb;
+        this.cr = cr;
+        this.horizontalShift = sampling.horizontalFactor - 1;
+        this.verticalShift = sampling.verticalFactor - 1;
+        this.oddWidth = horizontalShift == 1 && (width & 1) == 1;
+        // Only set if the last row has no partner row to be averaged with
+        this.lastRow = verticalShift == 1 && (height & 1) == 1 ? height - 1 : -1;
+        this.chromaWeight = 1f / (sampling.horizontalFactor * sampling.verticalFactor);
+        this.vectorized = vectorized && VectorSupport.AVAILABLE;
+        this.blueRow = this.vectorized && cb != null ? new float[width] : null;
+        this.redRow = this.vectorized && cb != null ? new float[width] : null;
+    }
+
+    /**
+     * Converts the whole image and stores the results in the top left corner of the planes.
+     * The chroma planes must be filled with zeros, because the converter adds to them.
+     *
+     * @param input    the image to convert
+     * @param sampling the chroma subsampling, which the sizes of the chroma planes must match
+     * @param y        receives the luma values
+     * @param cb       receives the blue-difference chroma values, or {@code null} to compute luma only
+     * @param cr       receives the red-difference chroma values, or {@code null} to compute luma only
+     */
+    static void convert(BufferedImage input, ChromaSubsampling sampling, Plane y, Plane cb, Plane cr) {
+        convert(input, sampling, y, cb, cr, true);
+    }
+
+    /**
+     * Converts the whole image like {@link #convert(BufferedImage, ChromaSubsampling, Plane, Plane, Plane)},
+     * choosing between the scalar and the vectorized colour transform. Both give the same results.
+     *
+     * @param vectorized whether to use the Vector API; ignored when {@link VectorSupport#AVAILABLE} is not set
+     */
+    static void convert(BufferedImage input, ChromaSubsampling sampling, Plane y, Plane cb, Plane cr,
+                        boolean vectorized) {
+        ColorConverter converter = new ColorConverter(input.getWidth(), input.getHeight(), sampling, y, cb, cr,
+                vectorized);
+        switch (input.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                converter.convertPackedInt(input.getRaster());
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                converter.convertInterleavedBytes(input.getRaster());
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                if (cb == null) {
+                    converter.convertGray(input.getRaster());
+                } else {
+                    converter.convertGeneric(input);
+                }
+                break;
+            default:
+                converter.convertGeneric(input);
+                break;
+        }
+    }
+
+    /**
+     * Returns whether the image only has a gray channel and is best encoded as a single component.
+     */
+    static boolean isGrayscale(BufferedImage input) {
+        return input.getColorModel().getNumColorComponents() == 1;
+    }
+
+    /**
+     * Pixels packed as 0x(AA)RRGGBB ints; the alpha channel is ignored.
+     */
+    private void convertPackedInt(Raster raster) {
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        int[] data = dataBuffer.getData();
+        int scanlineStride = sampleModel.getScanlineStride();
+        int origin = dataBuffer.getOffset() + sampleModel.getOffset(
+                raster.getMinX() - raster.getSampleModelTranslateX(),
+                raster.getMinY() - raster.getSampleModelTranslateY());
+
+        for (int row = 0; row < raster.getHeight(); row++) {
+            convertRow(data, origin + row * scanlineStride, raster.getWidth(), row);
+        }
+    }
+
+    /**
+     * Pixels stored as one byte per band, such as {@link BufferedImage#TYPE_3BYTE_BGR}.
+     */
+    private void convertInterleavedBytes(Raster raster) {
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        int scanlineStride = sampleModel.getScanlineStride();
+        int pixelStride = sampleModel.getPixelStride();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        // getOffset points at the first band of the pixel, the band offsets are added per channel below
+        int origin = dataBuffer.getOffset() - bandOffsets[0] + sampleModel.getOffset(
+                raster.getMinX() - raster.getSampleModelTranslateX(),
+                raster.getMinY() - raster.getSampleModelTranslateY());
+        int width = raster.getWidth();
+        int[] rgbRow = new int[width];
+
+        for (int row = 0; row < raster.getHeight(); row++) {
+            int index = origin + row * scanlineStride;
+            for (int x = 0; x < width; x++, index += pixelStride) {
+                int red = data[index + bandOffsets[0]] & 0xFF;
+                int green = data[index + bandOffsets[1]] & 0xFF;
+                int blue = data[index + bandOffsets[2]] & 0xFF;
+                rgbRow[x] = (red << 16) | (green << 8) | blue;
+            }
+            convertRow(rgbRow, 0, width, row);
+        }
+    }
+
+    /**
+     * 8-bit gray pixels are already luma, so this is only used when no chroma is wanted. The stored values are used as they are, without the
+     * linear-to-sRGB conversion that {@link BufferedImage#getRGB(int, int)} applies to gray images.
+     */
+    private void convertGray(Raster raster) {
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        int scanlineStride = sampleModel.getScanlineStride();
+        int pixelStride = sampleModel.getPixelStride();
+        int origin = dataBuffer.getOffset() + sampleModel.getOffset(
+                raster.getMinX() - raster.getSampleModelTranslateX(),
+                raster.getMinY() - raster.getSampleModelTranslateY());
+        int width = raster.getWidth();
+
+        for (int row = 0; row < raster.getHeight(); row++) {
+            int index = origin + row * scanlineStride;
+            int outputRow = row * y.stride;
+            for (int x = 0; x < width; x++, index += pixelStride) {
+                y.samples[outputRow + x] = data[index] & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * Any other colour model, converted to sRGB by Java2D one row at a time.
+     */
+    private void convertGeneric(BufferedImage input) {
+        int width = input.getWidth();
+        int[] rgbRow = new int[width];
+
+        for (int row = 0; row < input.getHeight(); row++) {
+            input.getRGB(0, row, width, 1, rgbRow, 0, width);
+            convertRow(rgbRow, 0, width, row);
+        }
+    }
+
+    /**
+     * Converts one row of 0xRRGGBB pixels.
+     */
+    private void convertRow(int[] rgb, int offset, int width, int row) {
+        float[] luma = y.samples;
+        int outputRow = row * y.stride;
+
+        if (vectorized) {
+            convertRowVectorized(rgb, offset, width, row);
+            return;
+        }
+        if (cb == null) {
+            for (int x = 0; x < width; x++) {
+                int pixel = rgb[offset + x];
+                int red = (pixel >> 16) & 0xFF;
+                int green = (pixel >> 8) & 0xFF;
+                int blue = pixel & 0xFF;
+                luma[outputRow + x] = (Y_RED * red + Y_GREEN * green + Y_BLUE * blue) * INVERSE_SCALE;
+            }
+            return;
+        }
+
+        float[] blueChroma = cb.samples;
+        float[] redChroma = cr.samples;
+        int chromaRow = (row >> verticalShift) * cb.stride;
+        // The 128 offset is spread over the samples that are averaged into one chroma sample
+        float weight = row == lastRow ? 2 * chromaWeight : chromaWeight;
+        float offsetShare = 128 * weight;
+        float scale = INVERSE_SCALE * weight;
+
+        float blueValue = 0;
+        float redValue = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = rgb[offset + x];
+            int red = (pixel >> 16) & 0xFF;
+            int green = (pixel >> 8) & 0xFF;
+            int blue = pixel & 0xFF;
+
+            luma[outputRow + x] = (Y_RED * red + Y_GREEN * green + Y_BLUE * blue) * INVERSE_SCALE;
+            blueValue = (CB_RED * red + CB_GREEN * green + CB_BLUE * blue) * scale + offsetShare;
+            redValue = (CR_RED * red + CR_GREEN * green + CR_BLUE * blue) * scale + offsetShare;
+
+            int chromaIndex = chromaRow + (x >> horizontalShift);
+            blueChroma[chromaIndex] += blueValue;
+            redChroma[chromaIndex] += redValue;
+        }
+        if (oddWidth) {
+            // The last pixel stands in for its missing right neighbour
+            int chromaIndex = chromaRow + ((width - 1) >> horizontalShift);
+            blueChroma[chromaIndex] += blueValue;
+            redChroma[chromaIndex] += redValue;
+        }
+    }
+
+    /**
+     * Converts one row with {@link VectorColorConversion} and adds the chroma of its pixels up in the same order
+     * as {@link #convertRow}, so the sums are rounded the same way.
+     */
+    private void convertRowVectorized(int[] rgb, int offset, int width, int row) {
+        if (cb == null) {
+            VectorColorConversion.convertRow(rgb, offset, width, y.samples, row * y.stride, null, null, 0, 0);
+            return;
+        }
+
+        float weight = row == lastRow ? 2 * chromaWeight : chromaWeight;
+        VectorColorConversion.convertRow(rgb, offset, width, y.samples, row * y.stride, blueRow, redRow,
+                INVERSE_SCALE * weight, 128 * weight);
+
+        float[] blueChroma = cb.samples;
+        float[] redChroma = cr.samples;
+        int chromaRow = (row >> verticalShift) * cb.stride;
+        for (int x = 0; x < width; x++) {
+            int chromaIndex = chromaRow + (x >> horizontalShift);
+            blueChroma[chromaIndex] += blueRow[x];
+            redChroma[chromaIndex] += redRow[x];
+        }
+        if (oddWidth) {
+            int chromaIndex = chromaRow + ((width - 1) >> horizontalShift);
+            blueChroma[chromaIndex] += blueRow[width - 1];
+            redChroma[chromaIndex] += redRow[width - 1];
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package image.compress.imagecompress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves {@link JpegCompress} over HTTP on the loopback interface, so other local processes can use it.
+ * <ul>
+ *   <li>{@code POST /compress?quality=80} with an image in any format ImageIO reads as the body returns the JPEG.
+ *   Optional parameters are {@code subsampling} (444, 422, 420 or gray), {@code optimize} (true or false)
+ *   and {@code progressive} (true or false, for a progressive file with the successive approximation scans).
+ *   With {@code maxBytes} instead of {@code quality} the image is compressed at the highest quality that fits,
+ *   which the {@code X-Quality} header of the answer tells.</li>
+ *   <li>{@code GET /metrics} returns the request counters, the throughput, the p50 and p99 latencies
+ *   and the time the encoders spent in each stage.</li>
+ * </ul>
+ * A fixed number of encoders is kept in a pool and reused. At most {@code queueCapacity} more requests
+ * may wait for one; anything beyond that is answered with 503 straight away, so the latency of the admitted
+ * requests stays bounded under overload. Bodies larger than the request limit are answered with 413, and bodies
+ * that cannot be decoded with 400.
+ * <p>
+ * Every admitted request holds a handler thread until it is answered, so there is one thread per permit and a few
+ * more for the rejections and the metrics. Connections that arrive while every thread is busy wait without one.
+ */
+public class CompressionServer {
+    private static final Logger LOGGER = Logger.getLogger(CompressionServer.class.getName());
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_QUALITY = 80;
+    private static final long DEFAULT_MAX_REQUEST_BYTES = 64L << 20;
+    // Handler threads beyond the admission permits, which answer 503 and /metrics while every permit is taken
+    private static final int REPLY_THREADS = 2;
+    // Latencies of this many recent requests make up the percentiles
+    private static final int LATENCY_WINDOW = 4096;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final BlockingQueue<JpegCompress> encoders;
+    // One permit per encoder and per queue slot
+    private final Semaphore admission;
+    private final LatencyRecorder latencies = new LatencyRecorder(LATENCY_WINDOW);
+    // Shared by all encoders
+    private final EncoderMetrics encoderMetrics = new EncoderMetrics();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final long startTime = System.nanoTime();
+    private volatile long maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+
+    /**
+     * Creates the server and its encoders. It does not accept connections until {@link #start()}.
+     *
+     * @param port          the port on the loopback interface, or 0 for any free port
+     * @param encoderCount  the number of requests encoded at the same time
+     * @param queueCapacity the number of requests that may wait for an encoder
+     * @throws IOException if the port cannot be bound
+     */
+    public CompressionServer(int port, int encoderCount, int queueCapacity) throws IOException {
+        encoders = new ArrayBlockingQueue<>(encoderCount);
+        for (int i = 0; i < encoderCount; i++) {
+            encoders.add(createEncoder());
+        }
+        // Only the requests are measured, not the warm-up
+        for (JpegCompress encoder : encoders) {
+            encoder.setMetrics(encoderMetrics);
+        }
+        admission = new Semaphore(encoderCount + queueCapacity);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        handlers = Executors.newFixedThreadPool(encoderCount + queueCapacity + REPLY_THREADS);
+        server.setExecutor(handlers);
+        server.createContext("/compress", this::handleCompress);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    /**
+     * Creates an encoder with every quantization table already cached and its code paths warmed up,
+     * so the first requests are not slower than the rest. With a parallelism of 1 the encoder keeps its working
+     * buffers itself, so they are warm on whichever handler thread takes it.
+     */
+    private static JpegCompress createEncoder() {
+        JpegCompress encoder = new JpegCompress();
+        // Requests are already encoded side by side
+        encoder.setParallelism(1);
+        for (int level = 1; level <= 99; level++) {
+            encoder.quantizer(JpegCompress.LUMINANCE, level);
+            encoder.quantizer(JpegCompress.CHROMINANCE, level);
+        }
+        encoder.compressImage(new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB), DEFAULT_QUALITY);
+        return encoder;
+    }
+
+    /**
+     * Sets the largest request body that is read. Larger uploads are answered with 413 without being decoded,
+     * so a single huge request cannot take up the memory of the whole server.
+     *
+     * @param maxRequestBytes the limit in bytes; 64 MiB by default
+     */
+    public void setMaxRequestBytes(long maxRequestBytes) {
+        if (maxRequestBytes < 1 || maxRequestBytes > Integer.MAX_VALUE - 1) {
+            throw new IllegalArgumentException("The request limit must be between 1 and "
+                    + (Integer.MAX_VALUE - 1) + " bytes: " + maxRequestBytes);
+        }
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    public void start() {
+        server.start();
+        LOGGER.info("Compression service listening on " + getAddress());
+    }
+
+    public void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handleCompress(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        boolean post = exchange.getRequestMethod().equals("POST");
+        if (post && !admission.tryAcquire()) {
+            rejected.incrementAndGet();
+            reject(exchange);
+            return;
+        }
+        try (exchange) {
+            if (!post) {
+                sendText(exchange, 405, "Use POST\n");
+                return;
+            }
+            accepted.incrementAndGet();
+            try {
+                compress(exchange);
+            } finally {
+                admission.release();
+                latencies.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void compress(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        int quality;
+        long maxBytes;
+        ChromaSubsampling subsampling;
+        try {
+            quality = Integer.parseInt(parameters.getOrDefault("quality", String.valueOf(DEFAULT_QUALITY)));
+            maxBytes = Long.parseLong(parameters.getOrDefault("maxBytes", "0"));
+            subsampling = ChromaSubsampling.parse(parameters.getOrDefault("subsampling", "420"));
+            if (quality < 1 || quality > 99) {
+                throw new IllegalArgumentException("quality must be between 1 and 99, got " + quality);
+            }
+        } catch (IllegalArgumentException e) {
+            failed.incrementAndGet();
+            sendText(exchange, 400, e.getMessage() + "\n");
+            return;
+        }
+        boolean optimize = Boolean.parseBoolean(parameters.get("optimize"));
+        boolean progressive = Boolean.parseBoolean(parameters.get("progressive"));
+
+        // Read and decode before taking an encoder, so slow uploads do not hold one
+        long limit = maxRequestBytes;
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        byte[] upload = null;
+        if (contentLength == null || parseLength(contentLength) <= limit) {
+            // The header may be missing, as with chunked uploads, so the limit is checked on what arrives as well
+            upload = exchange.getRequestBody().readNBytes((int) limit + 1);
+        }
+        if (upload == null || upload.length > limit) {
+            failed.incrementAndGet();
+            sendText(exchange, 413, "The body is larger than " + limit + " bytes\n");
+            return;
+        }
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(upload));
+        } catch (IOException | RuntimeException e) {
+            // ImageIO plugins throw all kinds of runtime exceptions on corrupt input
+            image = null;
+        }
+        if (image == null) {
+            failed.incrementAndGet();
+            sendText(exchange, 400, "The body is not an image ImageIO can read\n");
+            return;
+        }
+
+        byte[] data;
+        JpegCompress encoder;
+        try {
+            encoder = encoders.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendText(exchange, 503, "Shutting down\n");
+            return;
+        }
+        try {
+            encoder.setChromaSubsampling(subsampling);
+            encoder.setOptimizeHuffman(optimize);
+            encoder.setScanScript(progressive ? ScanScript.SUCCESSIVE_APPROXIMATION : null);
+            if (maxBytes > 0) {
+                TargetSizeResult result = encoder.compressToSize(image, maxBytes);
+                data = result.data();
+                quality = result.compressionLevel();
+            } else {
+                data = encoder.compressImage(image, quality);
+            }
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Compression failed", e);
+            sendText(exchange, 500, "Compression failed\n");
+            return;
+        } finally {
+            encoders.add(encoder);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+        exchange.getResponseHeaders().set("X-Quality", String.valueOf(quality));
+        exchange.sendResponseHeaders(200, data.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(data);
+        }
+        bytesOut.addAndGet(data.length);
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            long completed = latencies.count();
+            String metrics = String.format(Locale.ROOT,
+                    "requests_accepted %d%n" +
+                            "requests_rejected %d%n" +
+                            "requests_failed %d%n" +
+                            "requests_in_flight %d%n" +
+                            "throughput_requests_per_second %.2f%n" +
+                            "throughput_bytes_per_second %.0f%n" +
+                            "latency_p50_ms %.2f%n" +
+                            "latency_p99_ms %.2f%n",
+                    accepted.get(), rejected.get(), failed.get(), accepted.get() - completed,
+                    completed / seconds, bytesOut.get() / seconds,
+                    latencies.percentile(50) / 1e6, latencies.percentile(99) / 1e6);
+            EncoderMetrics.Snapshot snapshot = encoderMetrics.snapshot();
+            StringBuilder stages = new StringBuilder(metrics);
+            for (EncoderMetrics.Stage stage : EncoderMetrics.Stage.values()) {
+                stages.append(String.format(Locale.ROOT, "encoder_%s_seconds %.3f%n",
+                        stage.name().toLowerCase(Locale.ROOT), snapshot.nanos(stage) / 1e9));
+            }
+            stages.append(String.format(Locale.ROOT, "encoder_uniform_blocks %d%n", snapshot.uniformBlocks()));
+            stages.append(String.format(Locale.ROOT, "encoder_block_cache_lookups %d%n", snapshot.cacheLookups()));
+            stages.append(String.format(Locale.ROOT, "encoder_block_cache_hit_rate %.3f%n", snapshot.cacheHitRate()));
+            stages.append(String.format(Locale.ROOT, "encoder_bits_per_pixel %.3f%n", snapshot.bitsPerPixel()));
+            sendText(exchange, 200, stages.toString());
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Answers 503 without reading the upload, so a slow or endless upload does not keep the thread busy.
+     * Closing the exchange would read what is left of the upload first, so it is failed instead, which makes
+     * the server close the connection once the answer is out.
+     *
+     * @throws IOException always, to end the exchange
+     */
+    private static void reject(HttpExchange exchange) throws IOException {
+        byte[] body = "Too many requests\n".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(503, body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.flush();
+        throw new IOException("Rejected without reading the upload");
+    }
+
+    /**
+     * @return the value of a Content-Length header, or {@link Long#MAX_VALUE} if it is not a number
+     */
+    private static long parseLength(String contentLength) {
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+
+    /**
+     * Runs the service until the process is stopped.
+     *
+     * @param args optional port, encoder count, queue capacity and request limit in bytes
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int encoderCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : 2 * encoderCount;
+        CompressionServer server = new CompressionServer(port, encoderCount, queueCapacity);
+        if (args.length > 3) {
+            server.setMaxRequestBytes(Long.parseLong(args[3]));
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    }
+}
@@ -0,0 +1,110 @@
+package image.compress.imagecompress;
+
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compresses the loaded image in the background, so dragging the compression slider does not block the UI.
+ * Each job first publishes a 1/8 scale preview decoded from the DC coefficients alone, and then the
+ * compressed file together with the full reconstruction.
+ * Calling {@link #restart()} for a new level cancels the job it replaces. All jobs run one after another
+ * on a single thread, so a superseded job that is already running only delays the next one, and its
+ * result is dropped.
+ * The DCT coefficients of the image are kept between jobs. Changing only the level then just redoes
+ * quantization and entropy coding, and the preview and the reconstruction are decoded into the images of an
+ * earlier job.
+ */
+public class CompressionService extends Service<CompressionService.Result> {
+    // Scale of the preview shown while the file is still being encoded
+    private static final int PREVIEW_SCALE = 8;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "compression");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final JpegCompress jpegCompress;
+    private final PreviewDecoder decoder = new PreviewDecoder();
+    private volatile BufferedImage image;
+    private volatile int compressionLevel;
+    // Only read and written by the jobs, which never overlap
+    private BufferedImage transformedSource;
+    private TransformedImage transformed;
+    // The decoded images, reused while the size stays the same. Jobs alternate between two of each, so a job does
+    // not decode into the images the UI may still be copying from the job before; a cancelled job keeps its pair.
+    private final BufferedImage[] previews = new BufferedImage[2];
+    private final BufferedImage[] reconstructions = new BufferedImage[2];
+    private int nextImages;
+
+    public CompressionService(JpegCompress jpegCompress) {
+        this.jpegCompress = jpegCompress;
+        setExecutor(EXECUTOR);
+    }
+
+    /**
+     * Sets the image to compress. Its DCT coefficients are computed by the next job.
+     *
+     * @param image the image to compress
+     */
+    public void setImage(BufferedImage image) {
+        this.image = image;
+    }
+
+    /**
+     * @param compressionLevel the compression level (ranges from 1 to 99)
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * What a job has produced so far.
+     *
+     * @param data  the compressed file, or {@code null} while it is still being encoded
+     * @param image the reconstruction of the compressed image; a reduced preview until {@code data} is set.
+     *              A later job decodes into it again, so it should be copied when the result arrives
+     */
+    public record Result(byte[] data, BufferedImage image) {
+    }
+
+    @Override
+    protected Task<Result> createTask() {
+        BufferedImage source = image;
+        int level = compressionLevel;
+        return new Task<>() {
+            @Override
+            protected Result call() {
+                if (transformedSource != source) {
+                    // Drop the old coefficients before the new ones are allocated
+                    transformedSource = null;
+                    transformed = null;
+                    Arrays.fill(previews, null);
+                    Arrays.fill(reconstructions, null);
+                    transformed = jpegCompress.transform(source);
+                    transformedSource = source;
+                }
+                if (isCancelled()) {
+                    return null;
+                }
+                QuantizedImage quantized = jpegCompress.quantize(transformed, level);
+                int images = nextImages;
+                previews[images] = decoder.decode(quantized, PREVIEW_SCALE, previews[images]);
+                updateValue(new Result(null, previews[images]));
+
+                byte[] data = jpegCompress.compressImage(quantized);
+                if (isCancelled()) {
+                    return null;
+                }
+                reconstructions[images] = decoder.decode(quantized, 1, reconstructions[images]);
+                nextImages = 1 - images;
+                return new Result(data, reconstructions[images]);
+            }
+        };
+    }
+}
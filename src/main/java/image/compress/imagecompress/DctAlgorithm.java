@@ -0,0 +1,45 @@
+package image.compress.imagecompress;
+
+import java.util.Locale;
+
+/**
+ * The forward DCT engines the encoder can be switched between at runtime.
+ * The default can be overridden with the {@code imagecompress.dct} system property.
+ */
+public enum DctAlgorithm {
+    /**
+     * Direct formula, 4096 multiply-adds per block. Slow, but the baseline for accuracy checks.
+     */
+    REFERENCE(new ReferenceDCT()),
+    /**
+     * Row/column matrix transform, 1024 multiply-adds per block.
+     */
+    SEPARABLE(new SeparableDCT()),
+    /**
+     * Arai-Agui-Nakajima fast DCT with its scale factors folded into quantization.
+     */
+    AAN(new AanDCT()),
+    /**
+     * The AAN DCT in single precision with the Vector API, when the JVM has the {@code jdk.incubator.vector}
+     * module and wide enough vectors; otherwise the same as {@link #AAN}.
+     */
+    VECTOR(VectorSupport.aanDct());
+
+    private final ForwardDCT engine;
+
+    DctAlgorithm(ForwardDCT engine) {
+        this.engine = engine;
+    }
+
+    public ForwardDCT engine() {
+        return engine;
+    }
+
+    /**
+     * Returns the algorithm named by the {@code imagecompress.dct} system property, or {@link #VECTOR} if it is
+     * not set, which is {@link #AAN} on JVMs without the Vector API.
+     */
+    public static DctAlgorithm fromSystemProperty() {
+        return valueOf(System.getProperty("imagecompress.dct", VECTOR.name()).toUpperCase(Locale.ROOT));
+    }
+}
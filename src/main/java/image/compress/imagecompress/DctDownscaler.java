@@ -0,0 +1,131 @@
+package image.compress.imagecompress;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+
+/**
+ * Scales blocks down by 2, 4 or 8 in the DCT domain, like a decoder that decodes at a reduced size.
+ * The lowest n x n coefficients of a block, with n = 8 / factor, describe the block at n x n samples, so an
+ * n-point inverse DCT of them gives the smaller block directly, without going back to the full-size samples.
+ * The smaller blocks are put together into a plane, which is then encoded like any other.
+ */
+final class DctDownscaler {
+    // The number of samples per block side after scaling
+    private final int size;
+    // Removes the scale factor of the engine and the gain of the 8-point transform from the kept coefficients
+    private final double[] weights;
+
+    /**
+     * @param factor      the factor the blocks shrink by: 2, 4 or 8
+     * @param outputScale the scale factors of the engine the coefficients come from
+     */
+    DctDownscaler(int factor, double[] outputScale) {
+        if (factor != 2 && factor != 4 && factor != 8) {
+            throw new IllegalArgumentException("The scale factor must be 1, 2, 4 or 8: " + factor);
+        }
+        size = BLOCK_SIZE / factor;
+        weights = new double[size * size];
+        for (int v = 0; v < size; v++) {
+            for (int u = 0; u < size; u++) {
+                weights[v * size + u] = size / (BLOCK_SIZE * outputScale[v * BLOCK_SIZE + u]);
+            }
+        }
+    }
+
+    /**
+     * Writes the smaller version of a transformed block into the smaller plane. Samples that fall outside the
+     * image part of the plane are left out, so the edges of the plane have to be padded afterwards.
+     *
+     * @param block       the coefficients of the block from the DCT, in row-major order
+     * @param scratch     64 values to transform the kept coefficients in
+     * @param output      the smaller plane
+     * @param blockRow    the block row of the block in the full-size plane
+     * @param blockColumn the block column of the block in the full-size plane
+     */
+    void downscale(double[] block, double[] scratch, Plane output, int blockRow, int blockColumn) {
+        int top = blockRow * size;
+        int left = blockColumn * size;
+        int rows = Math.min(size, output.height - top);
+        int samples = Math.min(size, output.width - left);
+        if (rows <= 0 || samples <= 0) {
+            return;
+        }
+
+        int count = size * size;
+        for (int v = 0; v < size; v++) {
+            for (int u = 0; u < size; u++) {
+                scratch[v * size + u] = block[v * BLOCK_SIZE + u] * weights[v * size + u];
+            }
+        }
+        if (size == 4) {
+            for (int row = 0; row < count; row += size) {
+                inverseTransform4(scratch, row, 1);
+            }
+            for (int column = 0; column < size; column++) {
+                inverseTransform4(scratch, column, size);
+            }
+        } else if (size == 2) {
+            double dc = scratch[0];
+            double horizontal = scratch[1];
+            double vertical = scratch[2];
+            double diagonal = scratch[3];
+            scratch[0] = 0.5 * (dc + horizontal + vertical + diagonal);
+            scratch[1] = 0.5 * (dc - horizontal + vertical - diagonal);
+            scratch[2] = 0.5 * (dc + horizontal - vertical - diagonal);
+            scratch[3] = 0.5 * (dc - horizontal - vertical + diagonal);
+        }
+        // A 1x1 block is its DC coefficient
+        for (int y = 0; y < rows; y++) {
+            int rowStart = (top + y) * output.stride + left;
+            for (int x = 0; x < samples; x++) {
+                // Clamped like a decoder would, so ringing does not leave the range of a sample.
+                // Math.min and max are much slower on doubles, as they have to handle NaN and -0.
+                double sample = 128 + scratch[y * size + x];
+                output.samples[rowStart + x] = (float) (sample < 0 ? 0 : sample > 255 ? 255 : sample);
+            }
+        }
+    }
+
+    /**
+     * The orthonormal 4-point inverse DCT, in place on four values {@code step} apart.
+     */
+    private static void inverseTransform4(double[] data, int offset, int step) {
+        double x0 = data[offset];
+        double x1 = data[offset + step];
+        double x2 = data[offset + 2 * step];
+        double x3 = data[offset + 3 * step];
+
+        // Even part
+        double even0 = 0.5 * (x0 + x2);
+        double even1 = 0.5 * (x0 - x2);
+
+        // Odd part: sqrt(1/2) times cos(pi/8) and cos(3pi/8)
+        double odd0 = 0.653281482 * x1 + 0.270598050 * x3;
+        double odd1 = 0.270598050 * x1 - 0.653281482 * x3;
+
+        data[offset] = even0 + odd0;
+        data[offset + step] = even1 + odd1;
+        data[offset + 2 * step] = even1 - odd1;
+        data[offset + 3 * step] = even0 - odd0;
+    }
+
+    /**
+     * Writes the smaller version of a uniform block, which is uniform as well.
+     *
+     * @param value       the value of every sample of the block
+     * @param output      the smaller plane
+     * @param blockRow    the block row of the block in the full-size plane
+     * @param blockColumn the block column of the block in the full-size plane
+     */
+    void fill(float value, Plane output, int blockRow, int blockColumn) {
+        int top = blockRow * size;
+        int left = blockColumn * size;
+        int rows = Math.min(size, output.height - top);
+        int samples = Math.min(size, output.width - left);
+        for (int y = 0; y < rows; y++) {
+            int rowStart = (top + y) * output.stride + left;
+            for (int x = 0; x < samples; x++) {
+                output.samples[rowStart + x] = value;
+            }
+        }
+    }
+}
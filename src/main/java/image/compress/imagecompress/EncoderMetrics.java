@@ -0,0 +1,183 @@
+package image.compress.imagecompress;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts the work of one or more encoders: the time spent in every stage, the blocks each stage processed
+ * and the bytes written. Every thread adds to counters of its own, so worker threads never contend on a shared
+ * counter; {@link #snapshot()} adds them up. A snapshot taken while images are being encoded may miss the latest
+ * updates of the other threads.
+ * <p>
+ * Stage times are the time the threads spent in the stage, added up over all threads, so with several worker
+ * threads they can be larger than the time the image took.
+ */
+public class EncoderMetrics {
+    /**
+     * The stages whose time is measured.
+     */
+    public enum Stage {
+        /** RGB to YCbCr conversion and chroma subsampling, counted in pixels instead of blocks. */
+        COLOR_CONVERSION,
+        /** The forward DCT, together with quantization when both run in one pass over the blocks. */
+        TRANSFORM,
+        /** Quantization of coefficients that were transformed earlier. */
+        QUANTIZATION,
+        /** Run-length and Huffman coding, including the statistics pass for optimized tables. */
+        ENTROPY_CODING
+    }
+
+    private static final int STAGES = Stage.values().length;
+
+    /**
+     * The counters of one thread. Only that thread writes them.
+     */
+    private static final class Counters {
+        final long[] nanos = new long[STAGES];
+        final long[] blocks = new long[STAGES];
+        long images;
+        long pixels;
+        long bytes;
+        long uniformBlocks;
+        long cacheLookups;
+        long cacheHits;
+    }
+
+    // The counters of every thread that ever recorded something, so nothing is lost when a thread ends
+    private final Set<Counters> allCounters = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Counters> counters = ThreadLocal.withInitial(() -> {
+        Counters threadCounters = new Counters();
+        allCounters.add(threadCounters);
+        return threadCounters;
+    });
+
+    /**
+     * Adds the time a thread spent in a stage.
+     *
+     * @param stage  the stage
+     * @param nanos  the time in nanoseconds
+     * @param blocks the number of blocks processed in that time, or pixels for colour conversion
+     */
+    void record(Stage stage, long nanos, long blocks) {
+        Counters threadCounters = counters.get();
+        threadCounters.nanos[stage.ordinal()] += nanos;
+        threadCounters.blocks[stage.ordinal()] += blocks;
+    }
+
+    /**
+     * Counts the blocks that took a shortcut past the DCT.
+     *
+     * @param uniformBlocks blocks whose samples were all the same
+     * @param cacheLookups  blocks looked up in the block cache
+     * @param cacheHits     blocks found in the block cache
+     */
+    void recordBlockShortcuts(long uniformBlocks, long cacheLookups, long cacheHits) {
+        Counters threadCounters = counters.get();
+        threadCounters.uniformBlocks += uniformBlocks;
+        threadCounters.cacheLookups += cacheLookups;
+        threadCounters.cacheHits += cacheHits;
+    }
+
+    /**
+     * Counts a finished image.
+     *
+     * @param pixels the number of pixels of the image
+     * @param bytes  the size of the compressed file
+     */
+    void recordImage(long pixels, long bytes) {
+        Counters threadCounters = counters.get();
+        threadCounters.images++;
+        threadCounters.pixels += pixels;
+        threadCounters.bytes += bytes;
+    }
+
+    /**
+     * Adds up the counters of all threads.
+     *
+     * @return the totals since this object was created
+     */
+    public Snapshot snapshot() {
+        long[] nanos = new long[STAGES];
+        long[] blocks = new long[STAGES];
+        long images = 0;
+        long pixels = 0;
+        long bytes = 0;
+        long uniformBlocks = 0;
+        long cacheLookups = 0;
+        long cacheHits = 0;
+        for (Counters threadCounters : allCounters) {
+            for (int stage = 0; stage < STAGES; stage++) {
+                nanos[stage] += threadCounters.nanos[stage];
+                blocks[stage] += threadCounters.blocks[stage];
+            }
+            images += threadCounters.images;
+            pixels += threadCounters.pixels;
+            bytes += threadCounters.bytes;
+            uniformBlocks += threadCounters.uniformBlocks;
+            cacheLookups += threadCounters.cacheLookups;
+            cacheHits += threadCounters.cacheHits;
+        }
+        return new Snapshot(images, pixels, bytes, nanos, blocks, uniformBlocks, cacheLookups, cacheHits);
+    }
+
+    /**
+     * The totals of an {@link EncoderMetrics} at one point in time.
+     *
+     * @param images        the number of images written
+     * @param pixels        the pixels of those images
+     * @param bytes         the size of the files written
+     * @param nanos         the time of every stage, indexed by {@link Stage#ordinal()}
+     * @param blocks        the blocks of every stage, indexed by {@link Stage#ordinal()}
+     * @param uniformBlocks the blocks whose samples were all the same, which skipped the DCT
+     * @param cacheLookups  the blocks looked up in the block cache
+     * @param cacheHits     the blocks found in the block cache, which skipped the DCT and quantization
+     */
+    public record Snapshot(long images, long pixels, long bytes, long[] nanos, long[] blocks,
+                           long uniformBlocks, long cacheLookups, long cacheHits) {
+        /**
+         * @return the time spent in a stage in nanoseconds, added up over all threads
+         */
+        public long nanos(Stage stage) {
+            return nanos[stage.ordinal()];
+        }
+
+        /**
+         * @return the blocks a stage processed, or the pixels for colour conversion
+         */
+        public long blocks(Stage stage) {
+            return blocks[stage.ordinal()];
+        }
+
+        /**
+         * @return the average size of the files in bits per pixel, or 0 if nothing was written yet
+         */
+        public double bitsPerPixel() {
+            return pixels == 0 ? 0 : bytes * 8.0 / pixels;
+        }
+
+        /**
+         * @return the share of the block cache lookups that were hits, or 0 if there were none
+         */
+        public double cacheHitRate() {
+            return cacheLookups == 0 ? 0 : (double) cacheHits / cacheLookups;
+        }
+
+        /**
+         * Returns the counters that grew between an earlier snapshot and this one.
+         *
+         * @param earlier a snapshot of the same metrics taken before this one
+         * @return the difference
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] nanosSince = new long[STAGES];
+            long[] blocksSince = new long[STAGES];
+            for (int stage = 0; stage < STAGES; stage++) {
+                nanosSince[stage] = nanos[stage] - earlier.nanos[stage];
+                blocksSince[stage] = blocks[stage] - earlier.blocks[stage];
+            }
+            return new Snapshot(images - earlier.images, pixels - earlier.pixels, bytes - earlier.bytes,
+                    nanosSince, blocksSince, uniformBlocks - earlier.uniformBlocks,
+                    cacheLookups - earlier.cacheLookups, cacheHits - earlier.cacheHits);
+        }
+    }
+}
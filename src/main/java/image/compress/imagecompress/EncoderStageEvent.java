@@ -0,0 +1,25 @@
+package image.compress.imagecompress;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one stage of one image, from the point of view of the thread that started the stage.
+ * Disabled unless a recording enables it, in which case it costs next to nothing.
+ */
+@Name("image.compress.EncoderStage")
+@Label("Encoder Stage")
+@Category({"Image Compression"})
+@Description("One stage of compressing an image")
+@StackTrace(false)
+class EncoderStageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Blocks")
+    @Description("The blocks processed, or the pixels for colour conversion")
+    long blocks;
+}
@@ -0,0 +1,61 @@
+package image.compress.imagecompress;
+
+import java.util.Arrays;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+
+/**
+ * A forward 8x8 Discrete Cosine Transform.
+ * <p>
+ * Blocks are flat arrays of 64 values in row-major order and are transformed in place.
+ * Fast factorizations may leave each coefficient multiplied by a constant factor,
+ * which is reported by {@link #outputScale()} so the quantizer can fold it into its divisors.
+ */
+public interface ForwardDCT {
+
+    /**
+     * Transforms a level-shifted 8x8 block of samples into frequency-domain coefficients.
+     *
+     * @param block 64 values in row-major order; overwritten with the (possibly scaled) coefficients
+     */
+    void transform(double[] block);
+
+    /**
+     * Extracts an 8x8 block of samples, centers it around zero by subtracting 128 from each sample,
+     * and transforms it.
+     *
+     * @param samples the samples of a plane
+     * @param offset  the index of the top left sample of the block
+     * @param stride  the distance between two rows of the plane
+     * @param block   receives the (possibly scaled) coefficients in row-major order
+     */
+    default void transform(float[] samples, int offset, int stride, double[] block) {
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            int rowStart = offset + row * stride;
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                block[row * BLOCK_SIZE + column] = samples[rowStart + column] - 128;
+            }
+        }
+        transform(block);
+    }
+
+    /**
+     * Returns the DC coefficient of a block whose centred samples are all 1. A block whose samples all have the
+     * same value has no other coefficients, and its DC coefficient is that value times the gain.
+     *
+     * @return the gain of the DC coefficient, including the scale factor of this engine
+     */
+    default double dcGain() {
+        double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
+        Arrays.fill(block, 1);
+        transform(block);
+        return block[0];
+    }
+
+    /**
+     * Returns the factor each coefficient carries relative to the orthonormal JPEG DCT.
+     *
+     * @return 64 scale factors in row-major order; all ones for an unscaled transform
+     */
+    double[] outputScale();
+}
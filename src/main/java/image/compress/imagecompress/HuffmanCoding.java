@@ -1,22 +1,75 @@
 package image.compress.imagecompress;
 
-import javafx.util.*;
+import java.util.PriorityQueue;
 
+/**
+ * A node of a Huffman tree. Leaves hold a symbol and its frequency, inner nodes the sum of their children.
+ */
 public class HuffmanCoding implements Comparable<HuffmanCoding> {
-    Pair<Integer, Integer> data;
-    int frequency;
+    int symbol;
+    long frequency;
     HuffmanCoding left;
     HuffmanCoding right;
 
-    public HuffmanCoding(Pair<Integer, Integer> data, int frequency) {
-        this.data = data;
+    public HuffmanCoding(int symbol, long frequency) {
+        this.symbol = symbol;
         this.frequency = frequency;
         left = null;
         right = null;
     }
 
+    private HuffmanCoding(HuffmanCoding left, HuffmanCoding right) {
+        // An inner node keeps the symbol of its first child, so ties are broken the same way every time
+        this.symbol = left.symbol;
+        this.frequency = left.frequency + right.frequency;
+        this.left = left;
+        this.right = right;
+    }
+
     @Override
     public int compareTo(HuffmanCoding otherNode) {
-        return this.frequency - otherNode.frequency;
+        int byFrequency = Long.compare(this.frequency, otherNode.frequency);
+        // Among equally frequent nodes the higher symbol is merged first and ends up deepest in the tree
+        return byFrequency != 0 ? byFrequency : Integer.compare(otherNode.symbol, this.symbol);
+    }
+
+    /**
+     * Builds a Huffman tree for the given symbol frequencies and returns the code length of every symbol.
+     *
+     * @param frequencies the number of occurrences of each symbol
+     * @return the depth of each symbol in the tree, 0 for symbols that never occur
+     */
+    static int[] codeLengths(long[] frequencies) {
+        PriorityQueue<HuffmanCoding> queue = new PriorityQueue<>();
+        for (int symbol = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] > 0) {
+                queue.add(new HuffmanCoding(symbol, frequencies[symbol]));
+            }
+        }
+
+        int[] lengths = new int[frequencies.length];
+        if (queue.size() == 1) {
+            // A single symbol still needs a one bit code
+            lengths[queue.peek().symbol] = 1;
+            return lengths;
+        }
+        while (queue.size() > 1) {
+            HuffmanCoding first = queue.poll();
+            HuffmanCoding second = queue.poll();
+            queue.add(new HuffmanCoding(first, second));
+        }
+        if (!queue.isEmpty()) {
+            assignLengths(queue.poll(), 0, lengths);
+        }
+        return lengths;
+    }
+
+    private static void assignLengths(HuffmanCoding node, int depth, int[] lengths) {
+        if (node.left == null) {
+            lengths[node.symbol] = depth;
+            return;
+        }
+        assignLengths(node.left, depth + 1, lengths);
+        assignLengths(node.right, depth + 1, lengths);
     }
 }
@@ -0,0 +1,101 @@
+package image.compress.imagecompress;
+
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+
+/**
+ * A JPEG Huffman table together with the code and code length of every symbol, so encoding a symbol is two array lookups.
+ */
+public class HuffmanTable {
+    public static final HuffmanTable DC_LUMINANCE = new HuffmanTable(JPEGHuffmanTable.StdDCLuminance);
+    public static final HuffmanTable AC_LUMINANCE = new HuffmanTable(JPEGHuffmanTable.StdACLuminance);
+    public static final HuffmanTable DC_CHROMINANCE = new HuffmanTable(JPEGHuffmanTable.StdDCChrominance);
+    public static final HuffmanTable AC_CHROMINANCE = new HuffmanTable(JPEGHuffmanTable.StdACChrominance);
+
+    private static final int MAX_CODE_LENGTH = 16;
+    // Extra symbol that takes the all-ones code, which JPEG does not allow for real symbols
+    private static final int RESERVED_SYMBOL = 256;
+
+    final JPEGHuffmanTable table;
+    final int[] codes = new int[256];
+    final int[] codeLengths = new int[256];
+
+    public HuffmanTable(JPEGHuffmanTable table) {
+        this.table = table;
+        short[] lengths = table.getLengths();
+        short[] values = table.getValues();
+
+        // Canonical code assignment, as in Annex C of the JPEG standard
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            for (int i = 0; i < lengths[length - 1]; i++) {
+                int symbol = values[k++];
+                codes[symbol] = code;
+                codeLengths[symbol] = length;
+                code++;
+            }
+            code <<= 1;
+        }
+    }
+
+    /**
+     * Builds the table that codes the given symbol statistics best, following Annex K.2 of the JPEG standard.
+     *
+     * @param frequencies the number of occurrences of each of the 256 symbols
+     * @return an optimized table that also contains every symbol with a non-zero frequency
+     */
+    static HuffmanTable fromFrequencies(long[] frequencies) {
+        long[] withReserved = new long[RESERVED_SYMBOL + 1];
+        System.arraycopy(frequencies, 0, withReserved, 0, 256);
+        withReserved[RESERVED_SYMBOL] = 1;
+
+        int[] symbolLengths = HuffmanCoding.codeLengths(withReserved);
+        int[] bits = new int[withReserved.length + 1];
+        int longest = 0;
+        for (int length : symbolLengths) {
+            if (length > 0) {
+                bits[length]++;
+                longest = Math.max(longest, length);
+            }
+        }
+
+        // Shorten codes longer than 16 bits: move pairs of long codes up the tree
+        for (int i = longest; i > MAX_CODE_LENGTH; i--) {
+            while (bits[i] > 0) {
+                int j = i - 2;
+                while (bits[j] == 0) {
+                    j--;
+                }
+                bits[i] -= 2;
+                bits[i - 1]++;
+                bits[j + 1] += 2;
+                bits[j]--;
+            }
+        }
+        // Drop the reserved symbol from the longest code length
+        int i = Math.min(longest, MAX_CODE_LENGTH);
+        while (bits[i] == 0) {
+            i--;
+        }
+        bits[i]--;
+
+        short[] lengths = new short[MAX_CODE_LENGTH];
+        int valueCount = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            lengths[length - 1] = (short) bits[length];
+            valueCount += bits[length];
+        }
+
+        // Symbols ordered by their original code length, then by value
+        short[] values = new short[valueCount];
+        int k = 0;
+        for (int length = 1; length <= longest && k < valueCount; length++) {
+            for (int symbol = 0; symbol < RESERVED_SYMBOL && k < valueCount; symbol++) {
+                if (symbolLengths[symbol] == length) {
+                    values[k++] = (short) symbol;
+                }
+            }
+        }
+        return new HuffmanTable(new JPEGHuffmanTable(lengths, values));
+    }
+}
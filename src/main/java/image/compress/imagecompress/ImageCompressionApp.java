@@ -9,6 +9,7 @@ import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.GridPane;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
@@ -16,6 +17,7 @@ import javafx.stage.Stage;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 
@@ -26,6 +28,10 @@ public class ImageCompressionApp extends Application {
     private static final ImageView compressedImageView = new ImageView();
     private static BufferedImage bufferedImage;
     private static final JpegCompress jpegCompress = new JpegCompress();
+    private static final CompressionService compressionService = new CompressionService(jpegCompress);
+    // Reused for every result of the same size; previews and full reconstructions are kept apart
+    private static WritableImage previewImage;
+    private static WritableImage compressedImage;
 
     public static final Logger LOGGER = Logger.getLogger(ImageCompressionApp.class.getName());
     public static final int DEFAULT_COMPRESSION_LEVEL = 80;
@@ -65,6 +71,7 @@ public class ImageCompressionApp extends Application {
         Button saveButton = new Button("Save Compressed Image");
         Slider compressionSlider = new Slider(1, 99, DEFAULT_COMPRESSION_LEVEL);
         Label compressionLabel = new Label("Compression Level: " + DEFAULT_COMPRESSION_LEVEL + "%");
+        Label sizeLabel = new Label();
 
         // Layout
         GridPane grid = new GridPane();
@@ -76,17 +83,28 @@ public class ImageCompressionApp extends Application {
         grid.add(compressionLabel, 1, 0);
         grid.add(compressionSlider, 1, 1);
         grid.add(saveButton, 2, 0);
+        grid.add(sizeLabel, 2, 1);
         grid.add(originalImageView, 0, 2);
         grid.add(compressedImageView, 1, 2);
 
         // Event Handlers
-        loadButton.setOnAction(e -> loadImage(primaryStage));
+        loadButton.setOnAction(e -> loadImage(primaryStage, compressionSlider));
         compressionSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (oldVal.intValue() == newVal.intValue()) {
+                return;
+            }
             compressionLabel.setText("Compression Level: " + newVal.intValue() + "%");
             if (bufferedImage != null) {
-                jpegCompress.compressImage(bufferedImage, newVal.intValue());
+                compress(newVal.intValue());
+            }
+        });
+        compressionService.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal != null) {
+                showCompressed(newVal, sizeLabel);
             }
         });
+        compressionService.setOnFailed(e ->
+                LOGGER.log(Level.WARNING, "Compression failed", compressionService.getException()));
         // Scene
         Scene scene = new Scene(grid, 1280, 720);
         primaryStage.setScene(scene);
@@ -94,7 +112,38 @@ public class ImageCompressionApp extends Application {
     }
 
 
-    private void loadImage(Stage stage) {
+    /**
+     * Starts compressing the loaded image in the background, cancelling any compression still pending.
+     *
+     * @param compressionLevel the compression level (ranges from 1 to 99)
+     */
+    private void compress(int compressionLevel) {
+        compressionService.setCompressionLevel(compressionLevel);
+        compressionService.restart();
+    }
+
+    /**
+     * Shows a result of the compression service. The images are reused while the size stays the same.
+     *
+     * @param result    the preview or the final result
+     * @param sizeLabel the label showing the size of the compressed file
+     */
+    private void showCompressed(CompressionService.Result result, Label sizeLabel) {
+        if (result.data() == null) {
+            previewImage = SwingFXUtils.toFXImage(result.image(), previewImage);
+            compressedImageView.setImage(previewImage);
+        } else {
+            compressedImage = SwingFXUtils.toFXImage(result.image(), compressedImage);
+            compressedImageView.setImage(compressedImage);
+        }
+        compressedImageView.setFitWidth(originalImageView.getFitWidth());
+        compressedImageView.setPreserveRatio(true);
+        if (result.data() != null) {
+            sizeLabel.setText("Compressed size: " + result.data().length / 1024 + " KB");
+        }
+    }
+
+    private void loadImage(Stage stage, Slider compressionSlider) {
         FileChooser fileChooser = new FileChooser();
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Image Files", "*.png", "*.jpg", "*.jpeg"));
         File selectedFile = fileChooser.showOpenDialog(stage);
@@ -102,7 +151,7 @@ public class ImageCompressionApp extends Application {
         if (selectedFile != null) {
             try {
                 // Use the selected file directly
-                BufferedImage bufferedImage = ImageIO.read(selectedFile);
+                bufferedImage = ImageIO.read(selectedFile);
 
                 Image image = SwingFXUtils.toFXImage(bufferedImage, null);
                 originalImageView.setImage(image);
@@ -111,7 +160,8 @@ public class ImageCompressionApp extends Application {
                 originalImageView.setFitWidth(IMAGE_WIDTH);
                 originalImageView.setPreserveRatio(true);
 
-                jpegCompress.compressImage(bufferedImage, DEFAULT_COMPRESSION_LEVEL);
+                compressionService.setImage(bufferedImage);
+                compress((int) compressionSlider.getValue());
 
             } catch (IOException e) {
                 e.printStackTrace();
@@ -0,0 +1,35 @@
+package image.compress.imagecompress;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a compressed image. It lasts from the first stage the encoder ran for the image until the
+ * file is written, so for an image that was quantized earlier it only covers entropy coding and writing.
+ */
+@Name("image.compress.ImageEncoded")
+@Label("Image Encoded")
+@Category({"Image Compression"})
+@Description("An image compressed to a JFIF file")
+@StackTrace(false)
+class ImageEncodedEvent extends jdk.jfr.Event {
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Components")
+    int components;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Bits per Pixel")
+    double bitsPerPixel;
+}
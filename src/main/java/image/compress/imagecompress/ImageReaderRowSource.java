@@ -0,0 +1,66 @@
+package image.compress.imagecompress;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads the rows of an image file through an {@link ImageReader}, one source region per band,
+ * so the decoded image never has to be held in memory as a whole.
+ * Readers that cannot seek into their format still decode the rows above each region again,
+ * which is why the encoder asks for bands of many rows at once.
+ */
+public class ImageReaderRowSource implements RowSource, AutoCloseable {
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final ImageReadParam param;
+
+    /**
+     * Opens the first image of a file with the first reader that accepts its format.
+     *
+     * @param file the image file
+     * @throws IOException if the file cannot be opened or no reader supports its format
+     */
+    public ImageReaderRowSource(File file) throws IOException {
+        input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("No image reader for " + file);
+        }
+        reader = readers.next();
+        reader.setInput(input, true, true);
+        param = reader.getDefaultReadParam();
+    }
+
+    @Override
+    public int getWidth() throws IOException {
+        return reader.getWidth(0);
+    }
+
+    @Override
+    public int getHeight() throws IOException {
+        return reader.getHeight(0);
+    }
+
+    @Override
+    public BufferedImage readRows(int firstRow, int rowCount) throws IOException {
+        param.setSourceRegion(new Rectangle(0, firstRow, getWidth(), rowCount));
+        return reader.read(0, param);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
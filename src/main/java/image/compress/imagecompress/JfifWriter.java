@@ -0,0 +1,190 @@
+package image.compress.imagecompress;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static image.compress.imagecompress.JpegCompress.ZIGZAG_ORDER;
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+
+/**
+ * Writes the marker segments of a baseline or progressive JFIF file.
+ */
+public class JfifWriter {
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int APP0 = 0xE0;
+    private static final int DQT = 0xDB;
+    private static final int SOF0 = 0xC0;
+    private static final int SOF2 = 0xC2;
+    private static final int DHT = 0xC4;
+    private static final int SOS = 0xDA;
+    private static final int DRI = 0xDD;
+
+    private final OutputStream output;
+    // Marker segments go through here, so it counts their bytes
+    private final DataOutputStream out;
+    // Scan data bypasses the counting stream, whose int counter could overflow on very large images
+    private long scanBytes;
+
+    public JfifWriter(OutputStream output) {
+        this.output = output;
+        this.out = new DataOutputStream(output);
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long size() {
+        return out.size() + scanBytes;
+    }
+
+    public void writeStartOfImage() throws IOException {
+        writeMarker(SOI);
+    }
+
+    public void writeEndOfImage() throws IOException {
+        writeMarker(EOI);
+        out.flush();
+    }
+
+    /**
+     * Writes the JFIF APP0 segment: version 1.01, no units, 1:1 pixel aspect ratio and no thumbnail.
+     */
+    public void writeApplicationHeader() throws IOException {
+        writeMarker(APP0);
+        out.writeShort(16);
+        out.writeBytes("JFIF");
+        out.writeByte(0);
+        out.writeByte(1);
+        out.writeByte(1);
+        out.writeByte(0);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeByte(0);
+        out.writeByte(0);
+    }
+
+    /**
+     * Writes an 8-bit quantization table.
+     *
+     * @param id                 the table number, 0 to 3
+     * @param quantizationValues the table in row-major order; it is stored in zig-zag order as the format requires
+     */
+    public void writeQuantizationTable(int id, int[] quantizationValues) throws IOException {
+        int[] zigZag = new int[BLOCK_LENGTH];
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            zigZag[ZIGZAG_ORDER[i]] = quantizationValues[i];
+        }
+
+        writeMarker(DQT);
+        out.writeShort(2 + 1 + BLOCK_LENGTH);
+        out.writeByte(id);
+        for (int value : zigZag) {
+            out.writeByte(value);
+        }
+    }
+
+    /**
+     * Writes the baseline start of frame segment.
+     */
+    public void writeFrameHeader(int width, int height, QuantizedComponent[] components) throws IOException {
+        writeFrameHeader(width, height, components, false);
+    }
+
+    /**
+     * Writes the start of frame segment.
+     *
+     * @param progressive {@code true} for a progressive frame, whose coefficients are sent in several scans
+     * @throws IllegalArgumentException if the width or height does not fit in the 16 bits of the header
+     */
+    public void writeFrameHeader(int width, int height, QuantizedComponent[] components, boolean progressive)
+            throws IOException {
+        JpegCompress.checkDimensions(width, height);
+        writeMarker(progressive ? SOF2 : SOF0);
+        out.writeShort(8 + 3 * components.length);
+        out.writeByte(8);
+        out.writeShort(height);
+        out.writeShort(width);
+        out.writeByte(components.length);
+        for (QuantizedComponent component : components) {
+            out.writeByte(component.id);
+            out.writeByte((component.horizontalSampling << 4) | component.verticalSampling);
+            out.writeByte(component.tableIndex);
+        }
+    }
+
+    /**
+     * Writes one Huffman table.
+     *
+     * @param tableClass 0 for a DC table, 1 for an AC table
+     * @param id         the table number, 0 to 3
+     */
+    public void writeHuffmanTable(int tableClass, int id, HuffmanTable table) throws IOException {
+        short[] lengths = table.table.getLengths();
+        short[] values = table.table.getValues();
+
+        writeMarker(DHT);
+        out.writeShort(2 + 1 + lengths.length + values.length);
+        out.writeByte((tableClass << 4) | id);
+        for (short length : lengths) {
+            out.writeByte(length);
+        }
+        for (short value : values) {
+            out.writeByte(value);
+        }
+    }
+
+    /**
+     * Writes a define restart interval segment.
+     *
+     * @param mcus the number of MCUs between restart markers
+     */
+    public void writeRestartInterval(int mcus) throws IOException {
+        writeMarker(DRI);
+        out.writeShort(4);
+        out.writeShort(mcus);
+    }
+
+    /**
+     * Writes a sequential start of scan segment covering all coefficients of the given components.
+     */
+    public void writeScanHeader(QuantizedComponent[] components) throws IOException {
+        writeScanHeader(components, 0, BLOCK_LENGTH - 1, 0, 0);
+    }
+
+    /**
+     * Writes a start of scan segment for one scan of a progressive frame.
+     *
+     * @param spectralStart  the first coefficient of the scan in zig-zag order
+     * @param spectralEnd    the last coefficient of the scan in zig-zag order
+     * @param successiveHigh the bit position the previous scan of these coefficients stopped at, or 0
+     * @param successiveLow  the bit position this scan stops at
+     */
+    public void writeScanHeader(QuantizedComponent[] components, int spectralStart, int spectralEnd,
+                                int successiveHigh, int successiveLow) throws IOException {
+        writeMarker(SOS);
+        out.writeShort(6 + 2 * components.length);
+        out.writeByte(components.length);
+        for (QuantizedComponent component : components) {
+            out.writeByte(component.id);
+            out.writeByte((component.tableIndex << 4) | component.tableIndex);
+        }
+        out.writeByte(spectralStart);
+        out.writeByte(spectralEnd);
+        out.writeByte((successiveHigh << 4) | successiveLow);
+    }
+
+    /**
+     * Writes entropy-coded data, which is already byte-stuffed.
+     */
+    public void writeScanData(BitWriter writer) throws IOException {
+        scanBytes += writer.size();
+        writer.writeTo(output);
+    }
+
+    private void writeMarker(int marker) throws IOException {
+        out.writeByte(0xFF);
+        out.writeByte(marker);
+    }
+}
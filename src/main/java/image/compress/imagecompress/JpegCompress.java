@@ -1,366 +1,1618 @@
 package image.compress.imagecompress;
 
-import javafx.util.Pair;
-
 import javax.imageio.plugins.jpeg.JPEGQTable;
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.*;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
 
-import static image.compress.imagecompress.ImageCompressionApp.*;
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
 
-public class JpegCompress {
+public class JpegCompress implements AutoCloseable {
     public static final int BLOCK_SIZE = 8;
     public static final String LUMINANCE = "Luminance";
     public static final String CHROMINANCE = "Chrominance";
-    public static final double[][] COSINES = precomputeCosines();
 
-    private static double[][] precomputeCosines() {
-        double[][] cosines = new double[BLOCK_SIZE][BLOCK_SIZE];
+    // How many tasks per worker thread a plane is split into, so uneven blocks still balance out
+    private static final int TASKS_PER_THREAD = 4;
+    // ZIGZAG_ORDER[i] is the zig-zag position of the coefficient at row-major index i
+    static final int[] ZIGZAG_ORDER = {
+            0, 1, 5, 6, 14, 15, 27, 28,
+            2, 4, 7, 13, 16, 26, 29, 42,
+            3, 8, 12, 17, 25, 30, 41, 43,
+            9, 11, 18, 24, 31, 40, 44, 53,
+            10, 19, 23, 32, 39, 45, 52, 54,
+            20, 22, 33, 38, 46, 51, 55, 60,
+            21, 34, 37, 47, 50, 56, 59, 61,
+            35, 36, 48, 49, 57, 58, 62, 63
+    };
+    // About how many pixels one strip of a streamed image holds; strips are always whole MCU rows
+    private static final int STRIP_PIXELS = 1 << 20;
+    // AC symbols for a run of 16 zeros and for the end of the block
+    private static final int ZRL = 0xF0;
+    private static final int EOB = 0x00;
+    // The first restart marker; they count up to RST7 and start again
+    private static final int RST0 = 0xD0;
+    // The largest number of MCUs a restart interval may have
+    private static final int MAX_RESTART_INTERVAL = 0xFFFF;
+    // The frame header stores the width and height in 16 bits
+    static final int MAX_DIMENSION = 0xFFFF;
+    // Rate control searches on every RATE_SAMPLE_STEP-th MCU row of images with at least RATE_SAMPLE_MIN_ROWS of them
+    private static final int RATE_SAMPLE_STEP = 8;
+    private static final int RATE_SAMPLE_MIN_ROWS = 64;
+    // Blocks per thread the block cache holds by default
+    private static final int DEFAULT_BLOCK_CACHE_SIZE = 1024;
+    // After this many lookups the cache is given up on for the rest of a block range if fewer than
+    // one in BLOCK_CACHE_MIN_HIT_RATIO of them were hits
+    private static final int BLOCK_CACHE_TRIAL = 64;
+    private static final int BLOCK_CACHE_MIN_HIT_RATIO = 8;
+    private static final DctDownscaler[] NO_DOWNSCALERS = {};
+    private static final Plane[][] NO_RENDITIONS = {};
 
-        for (int m = 0; m < BLOCK_SIZE; m++) {
-            for (int p = 0; p < BLOCK_SIZE; p++) {
-                cosines[m][p] = Math.cos(((2 * m + 1) * p * Math.PI) / (2 * BLOCK_SIZE));
-            }
+    private ForwardDCT dct = DctAlgorithm.fromSystemProperty().engine();
+    // null means that all blocks are processed on the calling thread
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private boolean ownsPool = false;
+    private final ThreadLocal<BlockScratch> scratch = ThreadLocal.withInitial(BlockScratch::new);
+    // The buffers used when every block is processed on the calling thread. Such an encoder is used by one thread
+    // at a time, so it keeps them itself and they stay warm when it moves to another thread.
+    private final BlockScratch callerScratch = new BlockScratch();
+    private boolean optimizeHuffman = false;
+    private ChromaSubsampling subsampling = ChromaSubsampling.YUV420;
+    private boolean vectorColorConversion = true;
+    private int blockCacheSize = DEFAULT_BLOCK_CACHE_SIZE;
+    private int restartInterval = 0;
+    // null means that files are sequential
+    private ScanScript scanScript;
+    // null means that nothing is measured
+    private EncoderMetrics metrics;
+    // Base tables at compression level 50, by type
+    private final Map<String, JPEGQTable> baseTables = new HashMap<>(Map.of(
+            LUMINANCE, JPEGQTable.K1Luminance,
+            CHROMINANCE, JPEGQTable.K2Chrominance));
+    private final Map<QuantizerKey, Quantizer> quantizers = new ConcurrentHashMap<>();
+
+    private record QuantizerKey(String type, int compressionLevel) {
+    }
+
+    /**
+     * Selects the forward DCT engine used for all following compressions.
+     *
+     * @param algorithm the DCT algorithm to use
+     */
+    public void setDctAlgorithm(DctAlgorithm algorithm) {
+        this.dct = algorithm.engine();
+        // The cached quantizers have the scale factors of the previous engine folded in
+        quantizers.clear();
+    }
+
+    /**
+     * Replaces the base quantization table of a type. Like the standard tables, it is the table used at
+     * compression level 50 and is scaled for other levels.
+     *
+     * @param type  either {@code LUMINANCE} or {@code CHROMINANCE}
+     * @param table 64 values in row-major order, or {@code null} to go back to the standard table
+     */
+    public void setQuantizationTable(String type, int[] table) {
+        if (!type.equals(LUMINANCE) && !type.equals(CHROMINANCE)) {
+            throw new IllegalArgumentException("Unknown quantization table type: " + type);
+        }
+        if (table == null) {
+            baseTables.put(type, type.equals(LUMINANCE) ? JPEGQTable.K1Luminance : JPEGQTable.K2Chrominance);
+        } else {
+            baseTables.put(type, new JPEGQTable(table));
+        }
+        quantizers.clear();
+    }
+
+    /**
+     * Selects between the standard Huffman tables of the JPEG specification and tables optimized for each image.
+     * Optimized tables make the file a few percent smaller, but need an extra pass over the coefficients
+     * to collect the symbol statistics.
+     *
+     * @param optimizeHuffman {@code true} to build Huffman tables from the statistics of each image
+     */
+    public void setOptimizeHuffman(boolean optimizeHuffman) {
+        this.optimizeHuffman = optimizeHuffman;
+    }
+
+    /**
+     * Selects the chroma subsampling of colour images. Images with a single gray channel are always
+     * encoded as one luma component.
+     *
+     * @param subsampling the chroma subsampling; {@link ChromaSubsampling#GRAYSCALE} drops the colour entirely
+     */
+    public void setChromaSubsampling(ChromaSubsampling subsampling) {
+        this.subsampling = subsampling;
+    }
+
+    /**
+     * Chooses between the vectorized and the scalar RGB to YCbCr conversion, for comparing them.
+     * Both give the same planes. The vectorized one is only used when the JVM supports it, see {@link VectorSupport}.
+     *
+     * @param vectorized whether to use the Vector API for the colour conversion, the default
+     */
+    public void setVectorColorConversion(boolean vectorized) {
+        this.vectorColorConversion = vectorized;
+    }
+
+    /**
+     * Sets how many recently quantized blocks every worker thread remembers. A block whose samples match one of
+     * them is copied instead of transformed and quantized again, which pays off for screenshots and documents
+     * where the same blocks come back over and over. Looking a block up costs less than transforming it with any
+     * of the engines: on a terminal screenshot the cache saves about a third of the time the vectorized DCT takes.
+     * The blocks that keep coming back stay in the cache, while the others make room for new ones. On content that
+     * does not repeat, the cache switches itself off after a few dozen blocks. The output is the same with or
+     * without the cache.
+     *
+     * @param blocks the number of blocks per thread, or 0 to turn the cache off; 1024 by default
+     */
+    public void setBlockCacheSize(int blocks) {
+        if (blocks < 0) {
+            throw new IllegalArgumentException("The block cache size must not be negative: " + blocks);
+        }
+        this.blockCacheSize = blocks;
+    }
+
+    /**
+     * Sets the number of MCUs between restart markers. Every restart interval is entropy coded on its own,
+     * so with more than one thread the intervals are coded in parallel. The output is the same for every
+     * parallelism level. Restart markers cost a few bytes each; one interval per MCU row is a good choice.
+     *
+     * @param restartInterval the number of MCUs per interval, or 0 for no restart markers
+     */
+    public void setRestartInterval(int restartInterval) {
+        if (restartInterval < 0 || restartInterval > MAX_RESTART_INTERVAL) {
+            throw new IllegalArgumentException("Restart interval must be between 0 and "
+                    + MAX_RESTART_INTERVAL + ", got " + restartInterval);
+        }
+        this.restartInterval = restartInterval;
+    }
+
+    /**
+     * Selects progressive output: the coefficients of the whole image are sent in the scans of the script, so a
+     * decoder can show a coarse version of the image after the first scan. The Huffman tables of every scan are
+     * always optimized for it, and the scans are entropy coded one after another on the calling thread.
+     * {@link #compressStream} always writes sequential files, as it never holds the coefficients of the whole image.
+     *
+     * @param script the scans to write, or {@code null} for sequential files
+     */
+    public void setScanScript(ScanScript script) {
+        this.scanScript = script;
+    }
+
+    /**
+     * Starts or stops adding the work of this encoder to a set of metrics. Several encoders may share one.
+     * Without metrics no counters are updated and the block row tasks are not timed.
+     * The JFR events of the encoder are independent of this and are recorded whenever a JFR recording enables them.
+     *
+     * @param metrics the metrics to add to, or {@code null} to measure nothing
+     */
+    public void setMetrics(EncoderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets how many threads the DCT and quantization stage, and the entropy coding of restart intervals, may use.
+     * A value of 1 processes every block on the calling thread, higher values use a dedicated pool, which
+     * {@link #close} shuts down.
+     * With a value of 1 the encoder keeps one set of working buffers, so it must not be used by several threads
+     * at the same time; it may be handed from one thread to another.
+     * The compressed output is the same for every parallelism level.
+     *
+     * @param parallelism the number of worker threads, at least 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        shutdownOwnedPool();
+        if (parallelism == 1) {
+            pool = null;
+        } else {
+            pool = new ForkJoinPool(parallelism);
+            ownsPool = true;
+        }
+    }
+
+    /**
+     * Runs the DCT and quantization stage on an externally managed pool.
+     * The pool is not shut down by this encoder.
+     *
+     * @param executor the pool to use, or {@code null} to process every block on the calling thread, with the same
+     *                 restriction as a parallelism of 1
+     */
+    public void setExecutor(ForkJoinPool executor) {
+        shutdownOwnedPool();
+        pool = executor;
+    }
+
+    /**
+     * Shuts down the pool created by {@link #setParallelism} for more than one thread, so its threads end now
+     * instead of once they have been idle for a while. A pool set with {@link #setExecutor} is left running.
+     * The encoder may still be used afterwards, and then processes every block on the calling thread.
+     */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            shutdownOwnedPool();
+            pool = null;
+        }
+    }
+
+    private void shutdownOwnedPool() {
+        if (ownsPool) {
+            pool.shutdown();
+            ownsPool = false;
         }
-        return cosines;
     }
 
     /**
      * Compresses the image using the following steps:
      * <ol>
-     *   <li>Convert RGB to YCrCb.</li>
-     *   <li>Crominance downsampling.</li>
+     *   <li>Convert RGB to YCrCb, with crominance downsampling in the same pass.</li>
      *   <li>Apply Discrete Cosine Transform (DCT) to image blocks.</li>
      *   <li>Quantize the DCT coefficients to reduce file size.</li>
      *   <li>Perform Run Length Encoding (RLE) and Huffman Encoding for further compression.</li>
      * </ol>
      *
      * @param compressionLevel the compression level (ranges from 1 to 99)
+     * @return the compressed image as a baseline JFIF file
+     */
+    byte[] compressImage(BufferedImage input, int compressionLevel) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            compressImage(input, compressionLevel, output);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Compresses the image like {@link #compressImage(BufferedImage, int)} and writes the JFIF file to {@code output}.
+     *
+     * @param compressionLevel the compression level (ranges from 1 to 99)
+     * @param output           the stream receiving the compressed image; it is not closed
+     * @throws IOException if writing to {@code output} fails
      */
-    void compressImage(BufferedImage input, int compressionLevel) {
+    void compressImage(BufferedImage input, int compressionLevel, OutputStream output) throws IOException {
+        ImageEncodedEvent event = new ImageEncodedEvent();
+        event.begin();
         int width = input.getWidth();
         int height = input.getHeight();
-        double[][] luminanceValues = new double[height][width];
-        double[][] chrominanceBlueValues = new double[height][width];
-        double[][] chrominanceRedValues = new double[height][width];
-
-        // Step 1: Convert RGB to YCrCb
-        // The result will be inside the arrays
-        convertToYCbCr(input, luminanceValues, chrominanceBlueValues, chrominanceRedValues);
+        checkDimensions(width, height);
+        ChromaSubsampling sampling = samplingFor(input);
+        int mcusWide = ceilDiv(width, sampling.horizontalFactor * BLOCK_SIZE);
+        int mcusHigh = ceilDiv(height, sampling.verticalFactor * BLOCK_SIZE);
+        Plane[] planes = createPlanes(width, height, sampling, mcusWide, mcusHigh);
+        QuantizedComponent[] components = createComponents(sampling, mcusWide, mcusHigh);
 
-        // Step 2: Crominance downsapling
-        //THE SIZE OF AN ARRAY IS 4 TIMES SMALLER
-        double[][] downsapledBlueValues = downsampleColorArray(chrominanceBlueValues);
-        double[][] downsampledRedValues = downsampleColorArray(chrominanceRedValues);
+        // Step 1,2: Convert RGB to YCrCb and downsample the crominance
+        // The result will be inside the planes
+        convertToYCbCr(input, sampling, planes);
 
         // Step 3,4: DCT, Quantization
-        applyDCTAndQuantize(luminanceValues, LUMINANCE, compressionLevel);
-        applyDCTAndQuantize(downsapledBlueValues, CHROMINANCE, compressionLevel);
-        applyDCTAndQuantize(downsampledRedValues, CHROMINANCE, compressionLevel);
+        Quantizer[] quantizers = {quantizer(LUMINANCE, compressionLevel), quantizer(CHROMINANCE, compressionLevel)};
+        transformAndQuantize(planes, components, quantizers, NO_DOWNSCALERS, NO_RENDITIONS);
+
+        writeImage(new QuantizedImage(width, height, mcusWide, mcusHigh, components, quantizers), output, event);
     }
 
     /**
-     * Converts the RGB color values of the input image to the YCbCr color space.
-     * The Y component represents brightness, while Cb and Cr components
-     * represent color information. The computed Y, Cb, and Cr values
-     * are stored in the provided 2D arrays.
+     * Compresses an image at full size and at a half, a quarter or an eighth of its size, with one colour conversion
+     * and one DCT of the full-size image for all of them. The smaller renditions are scaled in the DCT domain:
+     * as each block is transformed, an inverse DCT of only its lowest frequencies writes it at the smaller sizes,
+     * so the full-size samples are never reconstructed. Only the smaller planes are transformed again, which
+     * costs a third of the full-size DCT for all three together.
+     * The block cache is not used for the full-size image, because a cached block has no coefficients to scale.
      *
-     * @param input   the input {@link BufferedImage} to be converted
-     * @param YValue  a 2D array where the computed Y (luma) values will be stored
-     * @param CbValue a 2D array where the computed Cb (blue-difference chroma) values will be stored
-     * @param CrValue a 2D array where the computed Cr (red-difference chroma) values will be stored
+     * @param compressionLevel the compression level (ranges from 1 to 99)
+     * @param scales           the renditions to write: 1 for full size, or 2, 4 or 8 to divide the width and height by
+     * @return the compressed renditions as baseline JFIF files, in the order of {@code scales}
      */
-    private void convertToYCbCr(BufferedImage input, double[][] YValue, double[][] CbValue, double[][] CrValue) {
+    byte[][] compressRenditions(BufferedImage input, int compressionLevel, int... scales) {
         int width = input.getWidth();
         int height = input.getHeight();
+        checkDimensions(width, height);
+        ChromaSubsampling sampling = samplingFor(input);
+        int mcusWide = ceilDiv(width, sampling.horizontalFactor * BLOCK_SIZE);
+        int mcusHigh = ceilDiv(height, sampling.verticalFactor * BLOCK_SIZE);
+        Plane[] planes = createPlanes(width, height, sampling, mcusWide, mcusHigh);
+        QuantizedComponent[] components = createComponents(sampling, mcusWide, mcusHigh);
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = input.getRGB(x, y);
-                Color color = new Color(rgb);
+        // The planes of every smaller rendition, filled while the full-size image is transformed
+        int smallerCount = 0;
+        for (int scale : scales) {
+            if (scale != 1) {
+                smallerCount++;
+            }
+        }
+        DctDownscaler[] downscalers = new DctDownscaler[smallerCount];
+        Plane[][] smaller = new Plane[smallerCount][];
+        int next = 0;
+        for (int scale : scales) {
+            if (scale != 1) {
+                downscalers[next] = new DctDownscaler(scale, dct.outputScale());
+                int smallerWidth = ceilDiv(width, scale);
+                int smallerHeight = ceilDiv(height, scale);
+                smaller[next] = createPlanes(smallerWidth, smallerHeight, sampling,
+                        ceilDiv(smallerWidth, sampling.horizontalFactor * BLOCK_SIZE),
+                        ceilDiv(smallerHeight, sampling.verticalFactor * BLOCK_SIZE));
+                next++;
+            }
+        }
 
-                int red = color.getRed();
-                int green = color.getGreen();
-                int blue = color.getBlue();
+        // Step 1,2: Convert RGB to YCrCb and downsample the crominance
+        convertToYCbCr(input, sampling, planes);
 
-                //Y first because Y is first
-                YValue[y][x] = 0.299 * red + 0.587 * green + 0.114 * blue;
-                CbValue[y][x] = 128 - 0.168736 * red - 0.331264 * green + 0.5 * blue;
-                CrValue[y][x] = 128 + 0.5 * red - 0.418688 * green - 0.081312 * blue;
+        // Step 3,4: DCT and quantization of the full-size image, which also scales it down
+        Quantizer[] quantizers = {quantizer(LUMINANCE, compressionLevel), quantizer(CHROMINANCE, compressionLevel)};
+        transformAndQuantize(planes, components, quantizers, downscalers, smaller);
 
+        // Step 5 for every rendition, and steps 3,4 for the smaller ones
+        byte[][] files = new byte[scales.length][];
+        next = 0;
+        for (int i = 0; i < scales.length; i++) {
+            if (scales[i] == 1) {
+                files[i] = compressImage(new QuantizedImage(width, height, mcusWide, mcusHigh, components, quantizers));
+                continue;
+            }
+            Plane[] smallerPlanes = smaller[next++];
+            for (Plane plane : smallerPlanes) {
+                plane.padEdges();
             }
+            Plane luma = smallerPlanes[0];
+            int smallerMcusWide = luma.blocksWide() / sampling.horizontalFactor;
+            int smallerMcusHigh = luma.blocksHigh() / sampling.verticalFactor;
+            QuantizedComponent[] smallerComponents = createComponents(sampling, smallerMcusWide, smallerMcusHigh);
+            transformAndQuantize(smallerPlanes, smallerComponents, quantizers, NO_DOWNSCALERS, NO_RENDITIONS);
+            files[i] = compressImage(new QuantizedImage(luma.width, luma.height, smallerMcusWide, smallerMcusHigh,
+                    smallerComponents, quantizers));
         }
-        LOGGER.info("Converting to YCbCr finished");
+        return files;
     }
 
     /**
-     * Downsamples a 2D array by averaging 2x2 blocks of elements. The resulting
-     * array has half the height and half the width of the original array.
-     * Elements on the edge of the array that do not form a full 2x2 block,
-     * are treated  as 0.
+     * Compresses an image strip by strip, so neither the image nor its coefficients are ever held in memory as a whole.
+     * Each strip of whole MCU rows is read from the source, converted, transformed, quantized and entropy coded,
+     * and its part of the scan is written to {@code output} before the next strip is read. Memory use grows with
+     * the width of the image, not with its area.
+     * The standard Huffman tables are always used, because optimized tables would need the statistics of the
+     * whole image before the first strip could be written.
      *
-     * @param Color the input 2D array representing color channel data
-     * @return a new 2D array that is downsampled by averaging 2x2 blocks of the input array
+     * @param source           the rows of the image
+     * @param compressionLevel the compression level (ranges from 1 to 99)
+     * @param output           the stream receiving the compressed image; it is not closed
+     * @throws IOException              if reading the source or writing to {@code output} fails
+     * @throws IllegalArgumentException if the image is wider or higher than 65535 pixels
      */
-    private double[][] downsampleColorArray(double[][] Color) {
-        int height = Color.length;
-        int width = Color[0].length;
+    void compressStream(RowSource source, int compressionLevel, OutputStream output) throws IOException {
+        ImageEncodedEvent event = new ImageEncodedEvent();
+        event.begin();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        checkDimensions(width, height);
 
-        int newHeight = height / 2;
-        int newWidth = width / 2;
+        // Strips are at least one MCU row high, and taller for narrower images so that every strip has enough
+        // blocks to share out and sources that cannot seek are not asked for too many regions
+        ChromaSubsampling sampling = subsampling;
+        int mcuHeight = sampling.verticalFactor * BLOCK_SIZE;
+        int stripHeight = Math.min(height, mcuHeight * Math.max(1, STRIP_PIXELS / (width * mcuHeight)));
 
-        double[][] downsampledColor = new double[newHeight][newWidth];
+        // The first strip is needed up front, because a gray image is encoded with a single component
+        BufferedImage strip = source.readRows(0, stripHeight);
+        if (ColorConverter.isGrayscale(strip)) {
+            sampling = ChromaSubsampling.GRAYSCALE;
+        }
+        int mcusWide = ceilDiv(width, sampling.horizontalFactor * BLOCK_SIZE);
+        int mcusHigh = ceilDiv(height, sampling.verticalFactor * BLOCK_SIZE);
+        Quantizer[] quantizers = {quantizer(LUMINANCE, compressionLevel), quantizer(CHROMINANCE, compressionLevel)};
+        HuffmanTable[] dcTables = {HuffmanTable.DC_LUMINANCE, HuffmanTable.DC_CHROMINANCE};
+        HuffmanTable[] acTables = {HuffmanTable.AC_LUMINANCE, HuffmanTable.AC_CHROMINANCE};
+
+        JfifWriter jfif = new JfifWriter(output);
+        QuantizedComponent[] components = createComponents(sampling, mcusWide, 1);
+        writeHeaders(jfif, width, height, components, quantizers, dcTables, acTables);
 
-        for (int y = 0; y < height; y += 2) {
-            for (int x = 0; x < width; x += 2) {
+        EncoderMetrics stripMetrics = metrics;
+        BitWriter writer = new BitWriter();
+        // The DC prediction carries on from one strip to the next
+        int[] lastDc = new int[components.length];
+        Plane[] planes = null;
+        for (int firstRow = 0; firstRow < height; firstRow += stripHeight) {
+            int rows = Math.min(stripHeight, height - firstRow);
+            if (strip == null) {
+                strip = source.readRows(firstRow, rows);
+            }
+            int stripMcusHigh = ceilDiv(rows, sampling.verticalFactor * BLOCK_SIZE);
 
-                //This ensures that we are not out of bounds
-                double firstElement = Color[y][x];//This one is always safe
-                double secondElement = getSafeValueAt(Color, y, x + 1);
-                double thirdElement = getSafeValueAt(Color, y + 1, x);
-                double fourthElement = getSafeValueAt(Color, y + 1, x + 1);
+            // Only the first and the last strip allocate planes, the others reuse them
+            if (planes == null || planes[0].height != rows) {
+                planes = createPlanes(width, rows, sampling, mcusWide, stripMcusHigh);
+                components = createComponents(sampling, mcusWide, stripMcusHigh);
+            } else {
+                for (int c = 1; c < planes.length; c++) {
+                    Arrays.fill(planes[c].samples, 0);
+                }
+            }
 
+            // Step 1-4 for this strip
+            convertToYCbCr(strip, sampling, planes);
+            strip = null;
+            transformAndQuantize(planes, components, quantizers, NO_DOWNSCALERS, NO_RENDITIONS);
 
-                downsampledColor[y / 2][x / 2] = (firstElement + secondElement + thirdElement + fourthElement) / 4;
+            // Step 5 for this strip, written out straight away
+            EncoderStageEvent stageEvent = new EncoderStageEvent();
+            stageEvent.begin();
+            long start = System.nanoTime();
+            forEachBlockInScanOrder(components, mcusWide, 0, mcusWide * stripMcusHigh,
+                    firstRow / (sampling.verticalFactor * BLOCK_SIZE) * mcusWide, lastDc, (component, symbols, count) ->
+                            huffman(symbols, count, dcTables[component.tableIndex], acTables[component.tableIndex], writer),
+                    restart -> restart(writer, restart));
+            if (stripMetrics != null) {
+                stripMetrics.record(EncoderMetrics.Stage.ENTROPY_CODING, System.nanoTime() - start,
+                        blockCount(components));
             }
+            commit(stageEvent, EncoderMetrics.Stage.ENTROPY_CODING, blockCount(components));
+            jfif.writeScanData(writer);
         }
-        LOGGER.info("Downsampling color finished");
-        return downsampledColor;
+        writer.flush();
+        jfif.writeScanData(writer);
+        jfif.writeEndOfImage();
+        finishImage(event, width, height, components.length, jfif.size());
     }
 
     /**
-     * Applies the Discrete Cosine Transform (DCT) to the input 2D array in 8x8 blocks.
-     * Each block is transformed using the DCT, followed by quantization based on
-     * the provided type and compression level. This process is commonly used in
-     * image compression to reduce redundancy in image data.
+     * Compresses an image strip by strip like {@link #compressStream(RowSource, int, OutputStream)}
+     * and writes it to a channel.
      *
-     * @param input            the 2D array representing the image or color channel to be processed
-     * @param type             the quantization type to be applied; must be either {@code LUMINANCE} or {@code CHROMINANCE}
-     * @param compressionLevel the level of compression, ranging from 1 (maximum compression)
-     *                         to 99 (minimum compression)
+     * @param source           the rows of the image
+     * @param compressionLevel the compression level (ranges from 1 to 99)
+     * @param channel          the channel receiving the compressed image; it is not closed
+     * @throws IOException if reading the source or writing to {@code channel} fails
      */
-    private void applyDCTAndQuantize(double[][] input, String type, int compressionLevel) {
-        // Formula from
-        // https://www.mathworks.com/help/images/discrete-cosine-transform.html
+    void compressStream(RowSource source, int compressionLevel, WritableByteChannel channel) throws IOException {
+        // The headers are written in small pieces, which would each become a write on the channel
+        OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        compressStream(source, compressionLevel, output);
+        output.flush();
+    }
 
-        int inputHeight = input.length;
-        int inputWidth = input[0].length;
+    /**
+     * Converts the image to YCbCr and applies the DCT, but does not quantize it yet.
+     * The result can be compressed at any number of compression levels with
+     * {@link #quantize(TransformedImage, int)}, which then only has to redo quantization.
+     *
+     * @param input the image to transform
+     * @return the DCT coefficients of every component
+     */
+    TransformedImage transform(BufferedImage input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        checkDimensions(width, height);
+        ChromaSubsampling sampling = samplingFor(input);
+        int mcusWide = ceilDiv(width, sampling.horizontalFactor * BLOCK_SIZE);
+        int mcusHigh = ceilDiv(height, sampling.verticalFactor * BLOCK_SIZE);
+        Plane[] planes = createPlanes(width, height, sampling, mcusWide, mcusHigh);
 
-        //Blocks of 8x8
-        for (int i = 0; i < inputHeight; i += BLOCK_SIZE) {// HEIGHT
-            for (int j = 0; j < inputWidth; j += BLOCK_SIZE) {// WIDTH
+        convertToYCbCr(input, sampling, planes);
+
+        ForwardDCT engine = dct;
+        float[][] coefficients = new float[planes.length][];
+        BlockRowTask[] tasks = new BlockRowTask[planes.length];
+        for (int c = 0; c < planes.length; c++) {
+            Plane plane = planes[c];
+            float[] output = new float[plane.blocksWide() * plane.blocksHigh() * BLOCK_LENGTH];
+            coefficients[c] = output;
+            tasks[c] = new BlockRowTask(plane.blocksHigh(), measured(EncoderMetrics.Stage.TRANSFORM,
+                    plane.blocksWide(), (firstBlockRow, lastBlockRow) ->
+                            applyDCT(engine, plane, output, firstBlockRow, lastBlockRow)));
+        }
+        long blocks = 0;
+        for (float[] component : coefficients) {
+            blocks += component.length / BLOCK_LENGTH;
+        }
+        runStage(EncoderMetrics.Stage.TRANSFORM, blocks, tasks);
+
+        return new TransformedImage(width, height, sampling, mcusWide, mcusHigh, engine, coefficients);
+    }
+
+    /**
+     * Quantizes an image that was already transformed with {@link #transform(BufferedImage)}.
+     * This is much cheaper than compressing the image itself, because colour conversion and the DCT are skipped.
+     *
+     * @param input            the transformed image
+     * @param compressionLevel the compression level (ranges from 1 to 99)
+     * @return the quantized image, ready to be entropy coded or previewed
+     */
+    QuantizedImage quantize(TransformedImage input, int compressionLevel) {
+        if (input.dct != dct) {
+            throw new IllegalStateException("The image was transformed with a different DCT engine");
+        }
+        QuantizedComponent[] components = createComponents(input.sampling, input.mcusWide, input.mcusHigh);
+
+        // Step 4: Quantization of the cached coefficients
+        Quantizer[] quantizers = {quantizer(LUMINANCE, compressionLevel), quantizer(CHROMINANCE, compressionLevel)};
+        BlockRowTask[] tasks = new BlockRowTask[components.length];
+        for (int c = 0; c < components.length; c++) {
+            float[] coefficients = input.coefficients[c];
+            QuantizedComponent component = components[c];
+            Quantizer quantizer = quantizers[component.tableIndex];
+            tasks[c] = new BlockRowTask(component.blocksHigh, measured(EncoderMetrics.Stage.QUANTIZATION,
+                    component.blocksWide, (firstBlockRow, lastBlockRow) ->
+                            quantize(coefficients, quantizer, component, firstBlockRow, lastBlockRow)));
+        }
+        runStage(EncoderMetrics.Stage.QUANTIZATION, blockCount(components), tasks);
+
+        return new QuantizedImage(input.width, input.height, input.mcusWide, input.mcusHigh, components, quantizers);
+    }
+
+    /**
+     * Compresses a transformed image at the given level. Only quantization and entropy coding are done.
+     *
+     * @param input            the transformed image
+     * @param compressionLevel the compression level (ranges from 1 to 99)
+     * @return the compressed image as a baseline JFIF file
+     */
+    byte[] compressImage(TransformedImage input, int compressionLevel) {
+        return compressImage(quantize(input, compressionLevel));
+    }
 
-                double[][] block = extractBlocks(input, i, j);
-                double[][] dctBlock = performDCT(block);
+    /**
+     * Entropy codes a quantized image like {@link #compressImage(QuantizedImage, OutputStream)}.
+     *
+     * @param input the quantized image
+     * @return the compressed image as a baseline JFIF file
+     */
+    byte[] compressImage(QuantizedImage input) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            compressImage(input, output);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Compresses an image at the highest compression level whose file is no larger than {@code maxBytes}.
+     * The image is transformed once. The levels that are tried are only quantized and their size is estimated
+     * from the symbol statistics, mostly on a sample of the MCU rows; only the file that is returned is
+     * entropy coded. The whole search costs about as much as compressing the image twice at one level.
+     *
+     * @param input    the image to compress
+     * @param maxBytes the largest acceptable file size in bytes
+     * @return the compressed image and the level it was compressed at; if even level 1 does not fit,
+     * the image at level 1, which is larger than the budget
+     */
+    TargetSizeResult compressToSize(BufferedImage input, long maxBytes) {
+        return compressToSize(transform(input), maxBytes);
+    }
+
+    /**
+     * Compresses an image like {@link #compressToSize(BufferedImage, long)} with a budget in bits per pixel.
+     *
+     * @param input        the image to compress
+     * @param bitsPerPixel the largest acceptable size of the file per pixel of the image
+     * @return the compressed image and the level it was compressed at
+     */
+    TargetSizeResult compressToBitsPerPixel(BufferedImage input, double bitsPerPixel) {
+        return compressToSize(input, (long) (bitsPerPixel * input.getWidth() * input.getHeight() / 8));
+    }
+
+    /**
+     * Compresses a transformed image like {@link #compressToSize(BufferedImage, long)}.
+     *
+     * @param input    the transformed image
+     * @param maxBytes the largest acceptable file size in bytes
+     * @return the compressed image and the level it was compressed at
+     */
+    TargetSizeResult compressToSize(TransformedImage input, long maxBytes) {
+        // Step 1: Binary search on a sample of the MCU rows, which is much cheaper to quantize and count.
+        // The size grows with the level, and the scan of the sample is scaled up to the whole image.
+        TransformedImage sample = sampleRows(input);
+        double scale = (double) input.mcusHigh / sample.mcusHigh;
+        double[] sampleSizes = new double[100];
+        IntToDoubleFunction sampleSize = probe -> {
+            if (sampleSizes[probe] == 0) {
+                QuantizedImage candidate = quantize(sample, probe);
+                HuffmanTable[] dcTables = new HuffmanTable[2];
+                HuffmanTable[] acTables = new HuffmanTable[2];
+                double scanBytes = estimateScanBytes(candidate, dcTables, acTables) * scale;
+                sampleSizes[probe] = headerBytes(candidate, dcTables, acTables) + scanBytes;
+            }
+            return sampleSizes[probe];
+        };
+        int low = 1;
+        int high = 99;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (sampleSize.applyAsDouble(middle) <= maxBytes) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        // Step 2: The sample is only close, so its answer is checked on the whole image. How far the sample was off
+        // there corrects the sample at the next levels, and only a level the corrected sample lets through is tried.
+        int level = low;
+        QuantizedImage quantized = quantize(input, level);
+        long size = estimateSize(quantized);
+        double correction = size / sampleSize.applyAsDouble(level);
+        if (size <= maxBytes) {
+            while (level < 99 && sampleSize.applyAsDouble(level + 1) * correction <= maxBytes) {
+                QuantizedImage higher = quantize(input, level + 1);
+                if (estimateSize(higher) > maxBytes) {
+                    break;
+                }
+                level++;
+                quantized = higher;
+            }
+        } else {
+            while (level > 1 && size > maxBytes) {
+                // Skip the levels the corrected sample already rules out
+                level--;
+                while (level > 1 && sampleSize.applyAsDouble(level) * correction > maxBytes) {
+                    level--;
+                }
+                quantized = quantize(input, level);
+                size = estimateSize(quantized);
+                correction = size / sampleSize.applyAsDouble(level);
+            }
+        }
+
+        // Step 3: The byte stuffing is only estimated, so the real file is checked and the level lowered if needed
+        while (true) {
+            byte[] data = compressImage(quantized);
+            if (data.length <= maxBytes || level == 1) {
+                return new TargetSizeResult(data, level);
+            }
+            level--;
+            quantized = quantize(input, level);
+        }
+    }
+
+    /**
+     * Copies every few MCU rows of a transformed image into a smaller one, for estimating sizes quickly.
+     * Small images are returned as they are.
+     */
+    private static TransformedImage sampleRows(TransformedImage input) {
+        int step = input.mcusHigh >= RATE_SAMPLE_MIN_ROWS ? RATE_SAMPLE_STEP : 1;
+        if (step == 1) {
+            return input;
+        }
+        int sampleMcusHigh = ceilDiv(input.mcusHigh, step);
+        ChromaSubsampling sampling = input.sampling;
+        float[][] coefficients = new float[input.coefficients.length][];
+        for (int c = 0; c < coefficients.length; c++) {
+            // Every component has the blocks of one MCU row next to each other
+            int mcuRowLength = input.coefficients[c].length / input.mcusHigh;
+            coefficients[c] = new float[mcuRowLength * sampleMcusHigh];
+            for (int row = 0; row < sampleMcusHigh; row++) {
+                System.arraycopy(input.coefficients[c], row * step * mcuRowLength,
+                        coefficients[c], row * mcuRowLength, mcuRowLength);
+            }
+        }
+        return new TransformedImage(input.width, sampleMcusHigh * sampling.verticalFactor * BLOCK_SIZE, sampling,
+                input.mcusWide, sampleMcusHigh, input.dct, coefficients);
+    }
+
+    /**
+     * Estimates the size of the file {@link #compressImage(QuantizedImage)} would write, without entropy coding
+     * the image. The headers and the coded symbols are counted exactly; only the bytes stuffed after 0xFF bytes
+     * in the scan are estimated.
+     *
+     * @param input the quantized image
+     * @return the estimated file size in bytes
+     */
+    long estimateSize(QuantizedImage input) {
+        HuffmanTable[] dcTables = new HuffmanTable[2];
+        HuffmanTable[] acTables = new HuffmanTable[2];
+        long scanBytes = estimateScanBytes(input, dcTables, acTables);
+        return headerBytes(input, dcTables, acTables) + scanBytes;
+    }
+
+    /**
+     * @return the size of everything in the file of an image except the scan data
+     */
+    private long headerBytes(QuantizedImage input, HuffmanTable[] dcTables, HuffmanTable[] acTables) {
+        JfifWriter headers = new JfifWriter(OutputStream.nullOutputStream());
+        try {
+            writeHeaders(headers, input.width, input.height, input.components, input.quantizers, dcTables, acTables);
+            headers.writeEndOfImage();
+        } catch (IOException e) {
+            // Writing to the null stream does not fail
+            throw new UncheckedIOException(e);
+        }
+        return headers.size();
+    }
+
+    /**
+     * Estimates the size of the entropy coded scan of an image from its symbol statistics.
+     *
+     * @param dcTables receives the DC tables the scan would be coded with
+     * @param acTables receives the AC tables the scan would be coded with
+     * @return the estimated size of the scan in bytes, including restart markers
+     */
+    private long estimateScanBytes(QuantizedImage input, HuffmanTable[] dcTables, HuffmanTable[] acTables) {
+        int tableCount = input.components.length > 1 ? 2 : 1;
+        long[][][] frequencies = countSymbols(input, restartGroups(input));
+
+        long bits = 0;
+        for (int table = 0; table < tableCount; table++) {
+            long[] dc = frequencies[0][table];
+            long[] ac = frequencies[1][table];
+            if (optimizeHuffman) {
+                dcTables[table] = HuffmanTable.fromFrequencies(dc);
+                acTables[table] = HuffmanTable.fromFrequencies(ac);
+            } else {
+                dcTables[table] = table == 0 ? HuffmanTable.DC_LUMINANCE : HuffmanTable.DC_CHROMINANCE;
+                acTables[table] = table == 0 ? HuffmanTable.AC_LUMINANCE : HuffmanTable.AC_CHROMINANCE;
+            }
+            // Every symbol is followed by as many amplitude bits as its size category
+            for (int symbol = 0; symbol < 256; symbol++) {
+                bits += dc[symbol] * (dcTables[table].codeLengths[symbol] + symbol);
+                bits += ac[symbol] * (acTables[table].codeLengths[symbol] + (symbol & 0x0F));
+            }
+        }
+
+        long scanBytes = (bits + 7) / 8;
+        // Entropy coded bytes are close to random, so about one in 256 is 0xFF and gets a zero byte stuffed after it
+        scanBytes += scanBytes / 256;
+        if (restartInterval > 0) {
+            // Every restart marker takes two bytes, plus at most one byte of padding before it
+            int totalMcus = input.mcusWide * input.mcusHigh;
+            scanBytes += 3L * (ceilDiv(totalMcus, restartInterval) - 1);
+        }
+        return scanBytes;
+    }
+
+    private ChromaSubsampling samplingFor(BufferedImage input) {
+        return ColorConverter.isGrayscale(input) ? ChromaSubsampling.GRAYSCALE : subsampling;
+    }
+
+    /**
+     * Creates the planes the image is converted into.
+     * The luminance plane covers whole MCUs, the chroma planes one block per MCU.
+     */
+    static Plane[] createPlanes(int width, int height, ChromaSubsampling sampling, int mcusWide, int mcusHigh) {
+        int horizontalFactor = sampling.horizontalFactor;
+        int verticalFactor = sampling.verticalFactor;
+        Plane[] planes = new Plane[sampling.hasChroma() ? 3 : 1];
+        planes[0] = new Plane(width, height, horizontalFactor * mcusWide, verticalFactor * mcusHigh);
+        for (int c = 1; c < planes.length; c++) {
+            planes[c] = new Plane(ceilDiv(width, horizontalFactor), ceilDiv(height, verticalFactor), mcusWide, mcusHigh);
+        }
+        return planes;
+    }
+
+    /**
+     * Creates the components of the frame, laid out like the planes of {@link #createPlanes}.
+     */
+    static QuantizedComponent[] createComponents(ChromaSubsampling sampling, int mcusWide, int mcusHigh) {
+        int horizontalFactor = sampling.horizontalFactor;
+        int verticalFactor = sampling.verticalFactor;
+        QuantizedComponent[] components = new QuantizedComponent[sampling.hasChroma() ? 3 : 1];
+        components[0] = new QuantizedComponent(1, horizontalFactor, verticalFactor, 0,
+                horizontalFactor * mcusWide, verticalFactor * mcusHigh);
+        for (int c = 1; c < components.length; c++) {
+            components[c] = new QuantizedComponent(c + 1, 1, 1, 1, mcusWide, mcusHigh);
+        }
+        return components;
+    }
+
+    /**
+     * Entropy codes the quantized components and writes the JFIF file.
+     *
+     * @param input  the quantized image
+     * @param output the stream receiving the compressed image; it is not closed
+     * @throws IOException if writing to {@code output} fails
+     */
+    void compressImage(QuantizedImage input, OutputStream output) throws IOException {
+        ImageEncodedEvent event = new ImageEncodedEvent();
+        event.begin();
+        writeImage(input, output, event);
+    }
 
+    /**
+     * Entropy codes the quantized components and writes the JFIF file, then finishes the event of the image.
+     *
+     * @param event the event of the image, started when the encoder began working on it
+     */
+    private void writeImage(QuantizedImage input, OutputStream output, ImageEncodedEvent event) throws IOException {
+        if (scanScript != null) {
+            writeProgressiveImage(input, output, event);
+            return;
+        }
+        QuantizedComponent[] components = input.components;
+        int mcusWide = input.mcusWide;
+        int tableCount = components.length > 1 ? 2 : 1;
 
-                // Step 4: Quantization
-                int[][] quantizedDctBlock = performQuantization(dctBlock, type, compressionLevel);
-                int[] zigZagBlock = convertToZigZag(quantizedDctBlock);
-                List<Pair<Integer, Integer>> rleBlock = runLengthEncode(zigZagBlock);
-                huffman(rleBlock);
+        // Step 5: RLE and Huffman
+        // Restart intervals are coded independently, so groups of them run at the same time.
+        // The groups are put together in MCU order, so the output does not depend on how they were scheduled.
+        int[] groupStarts = restartGroups(input);
+        int groups = groupStarts.length - 1;
+        HuffmanTable[] dcTables = Arrays.copyOf(
+                new HuffmanTable[]{HuffmanTable.DC_LUMINANCE, HuffmanTable.DC_CHROMINANCE}, tableCount);
+        HuffmanTable[] acTables = Arrays.copyOf(
+                new HuffmanTable[]{HuffmanTable.AC_LUMINANCE, HuffmanTable.AC_CHROMINANCE}, tableCount);
+        EncoderStageEvent stageEvent = new EncoderStageEvent();
+        stageEvent.begin();
+        if (optimizeHuffman) {
+            long[][][] frequencies = countSymbols(input, groupStarts);
+            for (int table = 0; table < tableCount; table++) {
+                dcTables[table] = HuffmanTable.fromFrequencies(frequencies[0][table]);
+                acTables[table] = HuffmanTable.fromFrequencies(frequencies[1][table]);
             }
         }
-        LOGGER.info("DCT and quantization finished");
+        BitWriter[] writers = new BitWriter[groups];
+        int blocksPerMcu = 0;
+        for (QuantizedComponent component : components) {
+            blocksPerMcu += component.horizontalSampling * component.verticalSampling;
+        }
+        int[] blocksPerGroup = new int[groups];
+        for (int group = 0; group < groups; group++) {
+            blocksPerGroup[group] = (groupStarts[group + 1] - groupStarts[group]) * blocksPerMcu;
+        }
+        EncoderMetrics groupMetrics = metrics;
+        runBlockRowTasks(new BlockRowTask(groups, (firstGroup, lastGroup) -> {
+            long start = System.nanoTime();
+            for (int group = firstGroup; group < lastGroup; group++) {
+                BitWriter writer = new BitWriter();
+                forEachBlockInScanOrder(components, mcusWide,
+                        groupStarts[group], groupStarts[group + 1],
+                        0, new int[components.length],
+                        (component, symbols, count) -> huffman(symbols, count,
+                                dcTables[component.tableIndex], acTables[component.tableIndex], writer),
+                        restart -> restart(writer, restart));
+                writer.flush();
+                writers[group] = writer;
+            }
+            if (groupMetrics != null) {
+                long blocks = 0;
+                for (int group = firstGroup; group < lastGroup; group++) {
+                    blocks += blocksPerGroup[group];
+                }
+                groupMetrics.record(EncoderMetrics.Stage.ENTROPY_CODING, System.nanoTime() - start, blocks);
+            }
+        }));
+        commit(stageEvent, EncoderMetrics.Stage.ENTROPY_CODING, blockCount(components));
+
+        JfifWriter jfif = new JfifWriter(output);
+        writeHeaders(jfif, input.width, input.height, components, input.quantizers, dcTables, acTables);
+        for (BitWriter writer : writers) {
+            jfif.writeScanData(writer);
+        }
+        jfif.writeEndOfImage();
+        finishImage(event, input.width, input.height, components.length, jfif.size());
     }
 
-    private void huffman(List<Pair<Integer, Integer>> rleBlock) {
+    /**
+     * Writes every marker segment up to and including the start of scan.
+     *
+     * @param components the components of the frame
+     * @param quantizers the quantizers, indexed by the table index of the components
+     * @param dcTables   the DC Huffman tables, indexed the same way
+     * @param acTables   the AC Huffman tables, indexed the same way
+     */
+    private void writeHeaders(JfifWriter jfif, int width, int height, QuantizedComponent[] components,
+                              Quantizer[] quantizers, HuffmanTable[] dcTables, HuffmanTable[] acTables)
+            throws IOException {
+        int tableCount = components.length > 1 ? 2 : 1;
+        writeFrameHeaders(jfif, width, height, components, quantizers, false);
+        for (int table = 0; table < tableCount; table++) {
+            jfif.writeHuffmanTable(0, table, dcTables[table]);
+            jfif.writeHuffmanTable(1, table, acTables[table]);
+        }
+        if (restartInterval > 0) {
+            jfif.writeRestartInterval(restartInterval);
+        }
+        jfif.writeScanHeader(components);
+    }
+
+    /**
+     * Writes the marker segments that come before the Huffman tables: the start of image, the JFIF header,
+     * the quantization tables and the frame header.
+     *
+     * @param progressive {@code true} to declare a progressive frame
+     */
+    private static void writeFrameHeaders(JfifWriter jfif, int width, int height, QuantizedComponent[] components,
+                                          Quantizer[] quantizers, boolean progressive) throws IOException {
+        int tableCount = components.length > 1 ? 2 : 1;
+        jfif.writeStartOfImage();
+        jfif.writeApplicationHeader();
+        for (int table = 0; table < tableCount; table++) {
+            jfif.writeQuantizationTable(table, quantizers[table].table);
+        }
+        jfif.writeFrameHeader(width, height, components, progressive);
     }
 
+    /**
+     * Writes the image as a progressive JFIF file with the scans of the scan script. Each scan is counted first,
+     * so it is written with Huffman tables built for its own symbols, which are sent right before it.
+     *
+     * @param event the event of the image, started when the encoder began working on it
+     */
+    private void writeProgressiveImage(QuantizedImage input, OutputStream output, ImageEncodedEvent event)
+            throws IOException {
+        QuantizedComponent[] components = input.components;
+        int tableCount = components.length > 1 ? 2 : 1;
+        List<ScanScript.Scan> scans = scanScript.scans(components.length);
+
+        JfifWriter jfif = new JfifWriter(output);
+        writeFrameHeaders(jfif, input.width, input.height, components, input.quantizers, true);
+        if (restartInterval > 0) {
+            jfif.writeRestartInterval(restartInterval);
+        }
+
+        // Step 5: RLE and Huffman, one scan at a time
+        EncoderStageEvent stageEvent = new EncoderStageEvent();
+        stageEvent.begin();
+        long start = System.nanoTime();
+        for (ScanScript.Scan scan : scans) {
+            QuantizedComponent[] scanComponents = new QuantizedComponent[scan.components().length];
+            for (int i = 0; i < scanComponents.length; i++) {
+                scanComponents[i] = components[scan.components()[i]];
+            }
+
+            ProgressiveScanCoder counter = new ProgressiveScanCoder(scan, tableCount);
+            counter.code(input, restartInterval);
+            HuffmanTable[] dcTables = new HuffmanTable[tableCount];
+            HuffmanTable[] acTables = new HuffmanTable[tableCount];
+            for (QuantizedComponent component : scanComponents) {
+                int table = component.tableIndex;
+                // DC refinement scans send their bits without Huffman codes
+                if (scan.isDc() && !scan.isRefinement() && dcTables[table] == null) {
+                    dcTables[table] = HuffmanTable.fromFrequencies(counter.dcFrequencies()[table]);
+                    jfif.writeHuffmanTable(0, table, dcTables[table]);
+                } else if (!scan.isDc() && acTables[table] == null) {
+                    acTables[table] = HuffmanTable.fromFrequencies(counter.acFrequencies()[table]);
+                    jfif.writeHuffmanTable(1, table, acTables[table]);
+                }
+            }
+
+            jfif.writeScanHeader(scanComponents, scan.spectralStart(), scan.spectralEnd(),
+                    scan.successiveHigh(), scan.successiveLow());
+            BitWriter writer = new BitWriter();
+            new ProgressiveScanCoder(scan, dcTables, acTables, writer).code(input, restartInterval);
+            jfif.writeScanData(writer);
+        }
+        long blocks = blockCount(components);
+        EncoderMetrics target = metrics;
+        if (target != null) {
+            target.record(EncoderMetrics.Stage.ENTROPY_CODING, System.nanoTime() - start, blocks);
+        }
+        commit(stageEvent, EncoderMetrics.Stage.ENTROPY_CODING, blocks);
+
+        jfif.writeEndOfImage();
+        finishImage(event, input.width, input.height, components.length, jfif.size());
+    }
 
     /**
-     * Converts a 2D array of quantized DCT coefficients into a 1D array using
-     * the zig-zag scanning order.
+     * Splits the scan of an image into groups of whole restart intervals that can be entropy coded at the same time.
      *
-     * @param quantizedDctBlock a 2D array of quantized DCT coefficients
-     * @return a 1D array containing the reordered coefficients in zig-zag scanning order
+     * @return the first MCU of every group, followed by the number of MCUs
      */
-    private int[] convertToZigZag(int[][] quantizedDctBlock) {
+    private int[] restartGroups(QuantizedImage input) {
+        int totalMcus = input.mcusWide * input.mcusHigh;
+        int interval = restartInterval == 0 ? totalMcus : restartInterval;
+        int intervals = ceilDiv(totalMcus, interval);
+        int groups = pool == null ? 1 : Math.min(intervals, pool.getParallelism() * TASKS_PER_THREAD);
+        int[] groupStarts = new int[groups + 1];
+        for (int group = 0; group <= groups; group++) {
+            groupStarts[group] = (int) Math.min(totalMcus, (long) intervals * group / groups * interval);
+        }
+        return groupStarts;
+    }
 
-        int rows = quantizedDctBlock.length;
-        int columns = quantizedDctBlock[0].length;
+    /**
+     * Counts the Huffman symbols of a whole image, one group of restart intervals per task.
+     *
+     * @param input       the quantized image
+     * @param groupStarts the groups as returned by {@link #restartGroups}
+     * @return the DC frequencies at index 0 and the AC frequencies at index 1, each by table and symbol
+     */
+    private long[][][] countSymbols(QuantizedImage input, int[] groupStarts) {
+        QuantizedComponent[] components = input.components;
+        int tableCount = components.length > 1 ? 2 : 1;
+        int groups = groupStarts.length - 1;
+        long[][][] dcFrequencies = new long[groups][tableCount][256];
+        long[][][] acFrequencies = new long[groups][tableCount][256];
+        // The blocks are counted once, in the coding pass
+        runBlockRowTasks(new BlockRowTask(groups, measured(EncoderMetrics.Stage.ENTROPY_CODING, 0,
+                (firstGroup, lastGroup) -> {
+                    for (int group = firstGroup; group < lastGroup; group++) {
+                        long[][] dc = dcFrequencies[group];
+                        long[][] ac = acFrequencies[group];
+                        forEachBlockInScanOrder(components, input.mcusWide,
+                                groupStarts[group], groupStarts[group + 1],
+                                0, new int[components.length],
+                                (component, symbols, count) -> countSymbols(symbols, count,
+                                        dc[component.tableIndex], ac[component.tableIndex]),
+                                restart -> {
+                                });
+                    }
+                })));
+        for (int table = 0; table < tableCount; table++) {
+            for (int group = 1; group < groups; group++) {
+                for (int symbol = 0; symbol < 256; symbol++) {
+                    dcFrequencies[0][table][symbol] += dcFrequencies[group][table][symbol];
+                    acFrequencies[0][table][symbol] += acFrequencies[group][table][symbol];
+                }
+            }
+        }
+        return new long[][][]{dcFrequencies[0], acFrequencies[0]};
+    }
 
-        int[] zigZagBlock = new int[rows * columns];
+    /**
+     * Counts a finished image in the metrics and commits its event.
+     */
+    private void finishImage(ImageEncodedEvent event, int width, int height, int components, long bytes) {
+        long pixels = (long) width * height;
+        EncoderMetrics target = metrics;
+        if (target != null) {
+            target.recordImage(pixels, bytes);
+        }
+        if (event.shouldCommit()) {
+            event.width = width;
+            event.height = height;
+            event.components = components;
+            event.bytes = bytes;
+            event.bitsPerPixel = bytes * 8.0 / pixels;
+            event.commit();
+        }
+    }
 
-        int[] zigZagOrder = {
-                0, 1, 5, 6, 14, 15, 27, 28,
-                2, 4, 7, 13, 16, 26, 29, 42,
-                3, 8, 12, 17, 25, 30, 41, 43,
-                9, 11, 18, 24, 31, 40, 44, 53,
-                10, 19, 23, 32, 39, 45, 52, 54,
-                20, 22, 33, 38, 46, 51, 55, 60,
-                21, 34, 37, 47, 50, 56, 59, 61,
-                35, 36, 48, 49, 57, 58, 62, 63
+    /**
+     * Wraps a block row action so the time every thread spends in it is added to the metrics.
+     * Without metrics the action is returned as it is.
+     *
+     * @param stage        the stage the action belongs to
+     * @param blocksPerRow the number of blocks per block row, counted as processed with each row
+     * @param action       the action to measure
+     */
+    private BlockRowAction measured(EncoderMetrics.Stage stage, int blocksPerRow, BlockRowAction action) {
+        EncoderMetrics target = metrics;
+        if (target == null) {
+            return action;
+        }
+        return (firstBlockRow, lastBlockRow) -> {
+            long start = System.nanoTime();
+            action.run(firstBlockRow, lastBlockRow);
+            target.record(stage, System.nanoTime() - start, (long) (lastBlockRow - firstBlockRow) * blocksPerRow);
         };
+    }
+
+    /**
+     * Runs the tasks of one stage and records it as a JFR event.
+     */
+    private void runStage(EncoderMetrics.Stage stage, long blocks, BlockRowTask... tasks) {
+        EncoderStageEvent event = new EncoderStageEvent();
+        event.begin();
+        runBlockRowTasks(tasks);
+        commit(event, stage, blocks);
+    }
+
+    private static void commit(EncoderStageEvent event, EncoderMetrics.Stage stage, long blocks) {
+        if (event.shouldCommit()) {
+            event.stage = stage.name();
+            event.blocks = blocks;
+            event.commit();
+        }
+    }
 
-        for (int i = 0; i < rows * columns; i++) {
-            int zigZagIndex = zigZagOrder[i];
-            int row = zigZagIndex / columns;
-            int col = zigZagIndex % columns;
-            zigZagBlock[i] = quantizedDctBlock[row][col];
+    private static long blockCount(QuantizedComponent[] components) {
+        long blocks = 0;
+        for (QuantizedComponent component : components) {
+            blocks += (long) component.blocksWide * component.blocksHigh;
         }
-        LOGGER.info("Converting to zig-zag finished");
-        return zigZagBlock;
+        return blocks;
     }
 
     /**
-     * Performs Run-Length Encoding (RLE) on the input zig-zag scanned block.
-     * The method compresses consecutive repeating values into a pair of the value and its run length.
-     * An additional pair (0,0) is appended at the end of the output as per JPEG RLE compression rules.
+     * Ends a restart interval: pads the last byte and writes the restart marker.
      *
-     * @param zigZagBlock an array of integers representing the zig-zag scanned block
-     * @return a list of pairs, where each pair consists of an integer value from
-     * the input array and its corresponding run length.
+     * @param writer the bit writer of the scan
+     * @param number the number of the restart marker, counting from 0
+     */
+    static void restart(BitWriter writer, int number) {
+        writer.flush();
+        writer.writeMarker(RST0 + (number & 7));
+    }
+
+    /**
+     * Rejects images a JFIF file cannot describe, before any work is done on them.
+     *
+     * @throws IllegalArgumentException if the width or height is not between 1 and 65535
+     */
+    static void checkDimensions(int width, int height) {
+        if (width < 1 || height < 1 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new IllegalArgumentException("JPEG images must be between 1 and " + MAX_DIMENSION
+                    + " pixels wide and high, got " + width + "x" + height);
+        }
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * @return the working buffers of the current thread
      */
-    private List<Pair<Integer, Integer>> runLengthEncode(int[] zigZagBlock) {
-        List<Pair<Integer, Integer>> encodedBlock = new ArrayList<>();
+    private BlockScratch scratch() {
+        return pool == null ? callerScratch : scratch.get();
+    }
 
-        for (int index = 0; index < zigZagBlock.length; index++) {
+    private void runBlockRowTasks(BlockRowTask... tasks) {
+        if (pool == null) {
+            for (BlockRowTask task : tasks) {
+                task.invoke();
+            }
+        } else {
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+    }
 
-            //Each element is seen at least once
-            int count = 1;
-            while (index < zigZagBlock.length - 1 && zigZagBlock[index] == zigZagBlock[index + 1]) {
-                count++;
-                index++;
+    /**
+     * Receives the symbols of the blocks of an interleaved scan one block at a time.
+     */
+    private interface ScanBlockVisitor {
+        /**
+         * @param component the component the block belongs to
+         * @param symbols   the packed symbols of the block as produced by {@link #runLengthEncode}
+         * @param count     the number of symbols
+         */
+        void visit(QuantizedComponent component, int[] symbols, int count);
+    }
+
+    /**
+     * Walks the blocks of a range of MCUs in the order of an interleaved scan: MCU by MCU,
+     * and inside each MCU the blocks of every component from left to right and top to bottom.
+     * {@code lastDc} holds the DC coefficient of the previous block of each component; it is updated,
+     * so a scan can be walked in several parts. Before the first MCU of every restart interval except the first,
+     * the DC prediction starts again from zero and {@code restart} is told the number of the restart marker.
+     *
+     * @param components the components of the scan
+     * @param mcusWide   the number of MCUs per row
+     * @param firstMcu   the first MCU to walk, counted in raster order within the components
+     * @param lastMcu    the MCU after the last one to walk
+     * @param mcuOffset  the index in the whole scan of MCU 0 of the components, for placing the restart markers
+     * @param lastDc     the DC prediction of each component
+     * @param visitor    receives the symbols of every block
+     * @param restart    called at every restart marker with its number
+     */
+    private void forEachBlockInScanOrder(QuantizedComponent[] components, int mcusWide, int firstMcu, int lastMcu,
+                                         int mcuOffset, int[] lastDc, ScanBlockVisitor visitor, IntConsumer restart) {
+        int[] symbols = scratch().symbols;
 
+        for (int mcu = firstMcu; mcu < lastMcu; mcu++) {
+            int scanMcu = mcuOffset + mcu;
+            if (restartInterval > 0 && scanMcu > 0 && scanMcu % restartInterval == 0) {
+                restart.accept(scanMcu / restartInterval - 1);
+                Arrays.fill(lastDc, 0);
+            }
+            int mcuRow = mcu / mcusWide;
+            int mcuColumn = mcu % mcusWide;
+            for (int c = 0; c < components.length; c++) {
+                QuantizedComponent component = components[c];
+                for (int v = 0; v < component.verticalSampling; v++) {
+                    for (int h = 0; h < component.horizontalSampling; h++) {
+                        int blockRow = mcuRow * component.verticalSampling + v;
+                        int blockColumn = mcuColumn * component.horizontalSampling + h;
+                        int offset = component.offset(blockRow, blockColumn);
+                        int dc = component.coefficients[offset];
+
+                        int count = runLengthEncode(component.coefficients, offset, dc - lastDc[c], symbols);
+                        visitor.visit(component, symbols, count);
+                        lastDc[c] = dc;
+                    }
+                }
             }
-            encodedBlock.add(new Pair<>(zigZagBlock[index], count));
         }
-        // This is added based on JPEG RLE compression rules
-        encodedBlock.add(new Pair<>(0, 0));
-        LOGGER.info("RLE finished");
-        return encodedBlock;
     }
 
     /**
-     * Performs quantization on an 8x8 block of values from the DCT.
-     * Each value in the block is divided by a corresponding quantization value and rounded
-     * to the nearest integer.
+     * Encodes the symbols of one block with the given Huffman tables. Every symbol is written as its Huffman code
+     * followed by its amplitude bits, in a single call to the bit writer.
      *
-     * @param block            the 8x8 block of DCT-transformed values to be quantized
-     * @param type             the quantization type; must be either {@code LUMINANCE} or {@code CHROMINANCE}
-     * @param compressionLevel the compression level (1-99)
-     * @return a quantized 8x8 block of values with reduced precision for compression
+     * @param symbols the packed symbols of the block as produced by {@link #runLengthEncode}; the first is the DC symbol
+     * @param count   the number of symbols
+     * @param dcTable the Huffman table for the DC difference
+     * @param acTable the Huffman table for the AC symbols
+     * @param writer  the bit writer receiving the codes
      */
-    private int[][] performQuantization(double[][] block, String type, float compressionLevel) {
+    void huffman(int[] symbols, int count, HuffmanTable dcTable, HuffmanTable acTable, BitWriter writer) {
+        // For a DC symbol the symbol is the size
+        int size = symbols[0] >>> 16;
+        writer.writeBits((dcTable.codes[size] << size) | (symbols[0] & 0xFFFF), dcTable.codeLengths[size] + size);
 
-        int[][] quantizedBlock = new int[BLOCK_SIZE][BLOCK_SIZE];
+        for (int i = 1; i < count; i++) {
+            int symbol = symbols[i] >>> 16;
+            size = symbol & 0x0F;
+            writer.writeBits((acTable.codes[symbol] << size) | (symbols[i] & 0xFFFF), acTable.codeLengths[symbol] + size);
+        }
+    }
 
-        int[] quantizationValues = calculateQuantizationTable(type, compressionLevel);
+    /**
+     * Counts the Huffman symbols of one block, for building optimized tables.
+     */
+    private void countSymbols(int[] symbols, int count, long[] dcFrequencies, long[] acFrequencies) {
+        dcFrequencies[symbols[0] >>> 16]++;
+        for (int i = 1; i < count; i++) {
+            acFrequencies[symbols[i] >>> 16]++;
+        }
+    }
 
-        for (int i = 0; i < BLOCK_SIZE; i++) {
-            for (int j = 0; j < BLOCK_SIZE; j++) {
-                //round it to the nearest int
-                quantizedBlock[i][j] = (int) block[i][j] / quantizationValues[i * BLOCK_SIZE + j];
+    /**
+     * Returns the JPEG size category of a value: the number of bits of its magnitude.
+     */
+    static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    /**
+     * Returns the amplitude bits of a value: the value itself if it is positive,
+     * and the one's complement of its magnitude if it is negative.
+     */
+    static int amplitudeBits(int value, int size) {
+        return (value < 0 ? value - 1 : value) & ((1 << size) - 1);
+    }
+
+    /**
+     * Work on a range of block rows of one component.
+     */
+    private interface BlockRowAction {
+        /**
+         * @param firstBlockRow the first block row to process
+         * @param lastBlockRow  the block row after the last one to process
+         */
+        void run(int firstBlockRow, int lastBlockRow);
+    }
+
+    /**
+     * Runs a block row action over all block rows of one component, or over any other range of independent work.
+     * Ranges larger than the split threshold are halved until there is enough work for every worker thread.
+     */
+    // ForkJoinTask is Serializable, but these tasks are never serialized
+    @SuppressWarnings("serial")
+    private class BlockRowTask extends RecursiveAction {
+        private final BlockRowAction action;
+        private final int firstBlockRow;
+        private final int lastBlockRow;
+        private final int splitThreshold;
+
+        BlockRowTask(int blockRows, BlockRowAction action) {
+            this(action, 0, blockRows, splitThreshold(blockRows));
+        }
+
+        private BlockRowTask(BlockRowAction action, int firstBlockRow, int lastBlockRow, int splitThreshold) {
+            this.action = action;
+            this.firstBlockRow = firstBlockRow;
+            this.lastBlockRow = lastBlockRow;
+            this.splitThreshold = splitThreshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastBlockRow - firstBlockRow <= splitThreshold) {
+                action.run(firstBlockRow, lastBlockRow);
+                return;
             }
+            int middle = (firstBlockRow + lastBlockRow) >>> 1;
+            invokeAll(
+                    new BlockRowTask(action, firstBlockRow, middle, splitThreshold),
+                    new BlockRowTask(action, middle, lastBlockRow, splitThreshold));
+        }
+    }
+
+    private int splitThreshold(int blockRows) {
+        if (pool == null) {
+            return blockRows;
         }
-        LOGGER.info("Quantization finished");
-        return quantizedBlock;
+        return Math.max(1, blockRows / (pool.getParallelism() * TASKS_PER_THREAD));
     }
 
     /**
-     * Calculates the quantization table for a specified type (luminance or chrominance)
-     * and compression level. The table is scaled based on the compression level to
-     * adjust the balance between quality and compression ratio.
+     * Converts the RGB color values of the input image to the YCbCr color space.
+     * The Y component represents brightness, while Cb and Cr components
+     * represent color information. The chroma is downsampled while converting,
+     * by averaging the samples that fall into one chroma sample. The computed Y, Cb, and Cr values
+     * are stored in the provided planes, whose edges are then padded to whole blocks.
      *
-     * @param type             the quantization type; must be either {@code LUMINANCE} or {@code CHROMINANCE}
-     * @param compressionLevel the compression level between 1 and 99,
-     *                         where 1 represents the highest compression and 99 represents the lowest compression
-     * @return an array representing the scaled quantization table values for an 8x8 block
+     * @param input    the input {@link BufferedImage} to be converted
+     * @param sampling the chroma subsampling, which the sizes of the planes match
+     * @param planes   the Y (luma) plane, followed by the Cb and Cr (chroma) planes unless the sampling is grayscale
      */
-    private static int[] calculateQuantizationTable(String type, float compressionLevel) {
-        JPEGQTable Table;
-        if (type.equals(LUMINANCE)) {
-            Table = JPEGQTable.K1Luminance;
+    private void convertToYCbCr(BufferedImage input, ChromaSubsampling sampling, Plane[] planes) {
+        EncoderStageEvent event = new EncoderStageEvent();
+        event.begin();
+        EncoderMetrics target = metrics;
+        long start = System.nanoTime();
+
+        // Reads the raster directly for the common image types
+        if (sampling.hasChroma()) {
+            ColorConverter.convert(input, sampling, planes[0], planes[1], planes[2], vectorColorConversion);
         } else {
-            Table = JPEGQTable.K2Chrominance;
+            ColorConverter.convert(input, sampling, planes[0], null, null, vectorColorConversion);
         }
-        // Making sure the compression level is between 1 and 99
-        compressionLevel = Math.max(1, Math.min(99, compressionLevel));
 
-        // Based on a rule
-        float scaleFactor;
-        if (compressionLevel < 50) {
-            scaleFactor = (float) (50.0 / compressionLevel);
-        } else {
-            scaleFactor = (float) (2 - (compressionLevel / 50.0));
+        for (Plane plane : planes) {
+            plane.padEdges();
         }
-        LOGGER.info("Scale factor: " + scaleFactor);
-        return Table.getScaledInstance(scaleFactor, true).getTable();
+
+        long pixels = (long) input.getWidth() * input.getHeight();
+        if (target != null) {
+            target.record(EncoderMetrics.Stage.COLOR_CONVERSION, System.nanoTime() - start, pixels);
+        }
+        commit(event, EncoderMetrics.Stage.COLOR_CONVERSION, pixels);
     }
 
     /**
-     * Extracts an 8x8 block of values from the specified position in the input 2D array.
-     * The block is prepared for the DCT by subtracting 128 from each pixel value to center the data around zero.
-     * If the specified block extends beyond the bounds of the input array,
-     * out-of-bounds positions are filled with zero.
+     * Applies the DCT to every plane and quantizes the blocks into the components.
+     * The planes are split into ranges of block rows that run at the same time.
      *
-     * @param input the input 2D array representing the image or data to be processed
-     * @param i     the starting row index of the block within the input array
-     * @param j     the starting column index of the block within the input array
-     * @return an 8x8 block of centered values extracted from the input array, with out-of-bounds positions filled with zeros
+     * @param downscalers scale the full-size blocks down for smaller renditions while they are transformed
+     * @param smaller     the planes of the smaller renditions, indexed like {@code downscalers} and then by plane
      */
-    private double[][] extractBlocks(double[][] input, int i, int j) {
-        // Now we have to extract one block from this position
-        double[][] block = new double[BLOCK_SIZE][BLOCK_SIZE];
+    void transformAndQuantize(Plane[] planes, QuantizedComponent[] components, Quantizer[] quantizers,
+                              DctDownscaler[] downscalers, Plane[][] smaller) {
+        BlockRowTask[] tasks = new BlockRowTask[components.length];
+        for (int c = 0; c < components.length; c++) {
+            Plane plane = planes[c];
+            QuantizedComponent component = components[c];
+            Quantizer quantizer = quantizers[component.tableIndex];
+            Plane[] smallerPlanes = new Plane[smaller.length];
+            for (int i = 0; i < smaller.length; i++) {
+                smallerPlanes[i] = smaller[i][c];
+            }
+            tasks[c] = new BlockRowTask(component.blocksHigh, measured(EncoderMetrics.Stage.TRANSFORM,
+                    component.blocksWide, (firstBlockRow, lastBlockRow) -> applyDCTAndQuantize(plane, quantizer,
+                    component, downscalers, smallerPlanes, firstBlockRow, lastBlockRow)));
+        }
+        runStage(EncoderMetrics.Stage.TRANSFORM, blockCount(components), tasks);
+    }
 
-        for (int x = 0; x < BLOCK_SIZE; x++) {
-            for (int y = 0; y < BLOCK_SIZE; y++) {
+    /**
+     * Applies the Discrete Cosine Transform (DCT) to a range of block rows of the input plane in 8x8 blocks.
+     * Each block is transformed using the DCT, followed by quantization with
+     * the provided quantizer. This process is commonly used in
+     * image compression to reduce redundancy in image data.
+     * Two kinds of blocks skip the DCT: uniform blocks, which only have a DC coefficient, and blocks whose
+     * samples are found in the block cache of the thread.
+     * The blocks are processed in the scratch buffers and the block cache of the current thread, or of the encoder
+     * with a parallelism of 1, which are allocated up front, so nothing is allocated per block.
+     *
+     * @param input         the plane representing the image or color channel to be processed
+     * @param quantizer     the quantizer to be applied
+     * @param output        the component receiving the zig-zag ordered coefficients of every block
+     * @param downscalers   scale every block down into the smaller planes; usually none
+     * @param smaller       the planes of this component in the smaller renditions, one per downscaler
+     * @param firstBlockRow the first block row to process
+     * @param lastBlockRow  the block row after the last one to process
+     */
+    private void applyDCTAndQuantize(Plane input, Quantizer quantizer, QuantizedComponent output,
+                                     DctDownscaler[] downscalers, Plane[] smaller,
+                                     int firstBlockRow, int lastBlockRow) {
+        BlockScratch blockScratch = scratch();
+        double[] block = blockScratch.block;
+        BlockCache cache = blockScratch.blockCache;
+        if (cache.capacity() != blockCacheSize) {
+            cache.setCapacity(blockCacheSize);
+        }
+        // A cached block has no coefficients to scale down
+        boolean useCache = blockCacheSize > 0 && downscalers.length == 0;
+        double dcGain = dct.dcGain();
+        long uniformBlocks = 0;
+        long cacheLookups = 0;
+        long cacheHits = 0;
 
-                //Get the correct element of an array and prepare it for DCT
-                block[x][y] = getSafeValueAt(input, i + x, j + y) - 128;
+        //Blocks of 8x8
+        for (int blockRow = firstBlockRow; blockRow < lastBlockRow; blockRow++) {// HEIGHT
+            for (int blockColumn = 0; blockColumn < output.blocksWide; blockColumn++) {// WIDTH
+                int inputOffset = input.blockOffset(blockRow, blockColumn);
+                int outputOffset = output.offset(blockRow, blockColumn);
+
+                // A uniform block only has a DC coefficient, which needs no DCT
+                if (input.isUniformBlock(inputOffset)) {
+                    quantizer.quantizeDc((input.samples[inputOffset] - 128) * dcGain, output.coefficients, outputOffset);
+                    for (int i = 0; i < downscalers.length; i++) {
+                        downscalers[i].fill(input.samples[inputOffset], smaller[i], blockRow, blockColumn);
+                    }
+                    uniformBlocks++;
+                    continue;
+                }
+
+                if (useCache && cacheLookups == BLOCK_CACHE_TRIAL) {
+                    // Content that does not repeat would only pay for the lookups
+                    useCache = cacheHits * BLOCK_CACHE_MIN_HIT_RATIO >= cacheLookups;
+                }
+                if (useCache) {
+                    cacheLookups++;
+                    if (cache.get(quantizer, input.samples, inputOffset, input.stride,
+                            output.coefficients, outputOffset)) {
+                        cacheHits++;
+                        continue;
+                    }
+                }
+
+                // Step 3: Centre the block around zero and apply the DCT
+                dct.transform(input.samples, inputOffset, input.stride, block);
+                for (int i = 0; i < downscalers.length; i++) {
+                    downscalers[i].downscale(block, blockScratch.downscaled, smaller[i], blockRow, blockColumn);
+                }
+
+                // Step 4: Quantization, straight into zig-zag order
+                quantizer.quantize(block, output.coefficients, outputOffset);
+
+                if (useCache) {
+                    cache.put(output.coefficients, outputOffset);
+                }
             }
         }
-        return block;
 
+        EncoderMetrics target = metrics;
+        if (target != null) {
+            target.recordBlockShortcuts(uniformBlocks, cacheLookups, cacheHits);
+        }
     }
 
     /**
-     * Performs the Discrete Cosine Transform (DCT) on an 8x8 block of values.
+     * Applies the DCT to a range of block rows of the input plane and keeps the unquantized coefficients.
+     * Uniform blocks skip the DCT like in {@link #applyDCTAndQuantize}.
      *
-     * @param block the 8x8 block of spatial data (typically pixel values) to be transformed
-     * @return an 8x8 block of frequency-domain coefficients resulting from the DCT
+     * @param engine        the DCT engine, fixed for the whole image
+     * @param input         the plane to be transformed
+     * @param output        receives the coefficients of every block, 64 per block in zig-zag order
+     * @param firstBlockRow the first block row to process
+     * @param lastBlockRow  the block row after the last one to process
      */
-    private double[][] performDCT(double[][] block) {
-
-        // c1 is used when q or p is 0
-        double c1 = Math.sqrt((double) 1 / BLOCK_SIZE);
-        // Otherwise we use c2
-        double c2 = Math.sqrt((double) 2 / BLOCK_SIZE);
+    private void applyDCT(ForwardDCT engine, Plane input, float[] output, int firstBlockRow, int lastBlockRow) {
+        double[] block = scratch().block;
+        int blocksWide = input.blocksWide();
+        double dcGain = engine.dcGain();
 
-        double[][] temp_block = new double[BLOCK_SIZE][BLOCK_SIZE];
+        for (int blockRow = firstBlockRow; blockRow < lastBlockRow; blockRow++) {
+            for (int blockColumn = 0; blockColumn < blocksWide; blockColumn++) {
+                int inputOffset = input.blockOffset(blockRow, blockColumn);
+                int offset = (blockRow * blocksWide + blockColumn) * BLOCK_LENGTH;
+                if (input.isUniformBlock(inputOffset)) {
+                    output[offset] = (float) ((input.samples[inputOffset] - 128) * dcGain);
+                    Arrays.fill(output, offset + 1, offset + BLOCK_LENGTH, 0);
+                    continue;
+                }
 
-        for (int p = 0; p < BLOCK_SIZE; p++) {
-            for (int q = 0; q < BLOCK_SIZE; q++) {
+                engine.transform(input.samples, inputOffset, input.stride, block);
+                for (int i = 0; i < BLOCK_LENGTH; i++) {
+                    output[offset + ZIGZAG_ORDER[i]] = (float) block[i];
+                }
+            }
+        }
+    }
 
-                double sum = computeDCTCoefficient(block, p, q);
-                double alfaP = (p == 0) ? c1 : c2;
-                double alfaQ = (q == 0) ? c1 : c2;
-                temp_block[p][q] = sum * alfaP * alfaQ;
+    /**
+     * Quantizes a range of block rows of cached DCT coefficients.
+     *
+     * @param input         the coefficients of the component, laid out like its blocks
+     * @param quantizer     the quantizer to be applied
+     * @param output        the component receiving the zig-zag ordered coefficients of every block
+     * @param firstBlockRow the first block row to process
+     * @param lastBlockRow  the block row after the last one to process
+     */
+    private void quantize(float[] input, Quantizer quantizer,
+                          QuantizedComponent output, int firstBlockRow, int lastBlockRow) {
+        for (int blockRow = firstBlockRow; blockRow < lastBlockRow; blockRow++) {
+            for (int blockColumn = 0; blockColumn < output.blocksWide; blockColumn++) {
+                int offset = output.offset(blockRow, blockColumn);
+                quantizer.quantize(input, offset, output.coefficients, offset);
             }
         }
-        return temp_block;
     }
 
     /**
-     * Computes a single coefficient for DCT at the specified indices `p` and `q`.
+     * Performs Run-Length Encoding (RLE) of one zig-zag ordered block into JPEG symbols.
+     * Each symbol is packed into an int as {@code (symbol << 16) | amplitudeBits}.
+     * The first symbol is the size category of the DC difference. Every non-zero AC coefficient becomes a
+     * {@code (zero run << 4) | size} symbol, runs longer than 15 zeros are split with ZRL symbols,
+     * and trailing zeros are replaced by a single EOB symbol as per JPEG RLE compression rules.
      *
-     * @param block the 8x8 block of pixel values to be transformed
-     * @param p     the row index of the frequency in the DCT result
-     * @param q     the column index of the frequency in the DCT result
-     * @return the computed DCT coefficient for the specified  indices `p` and `q`
+     * @param coefficients the quantized coefficients of a component in zig-zag order
+     * @param offset       the index of the first coefficient of the block
+     * @param dcDifference the DC coefficient minus the DC coefficient of the previous block of the same component
+     * @param symbols      receives the packed symbols; 64 entries are always enough
+     * @return the number of symbols written
      */
-    private double computeDCTCoefficient(double[][] block, int p, int q) {
+    int runLengthEncode(short[] coefficients, int offset, int dcDifference, int[] symbols) {
+        int size = bitLength(dcDifference);
+        symbols[0] = (size << 16) | amplitudeBits(dcDifference, size);
+        int count = 1;
 
-        double sum = 0;
-        //Not BLOCK_SIZE -1, as that should end at 6
-        for (int m = 0; m < BLOCK_SIZE; m++) {
-            for (int n = 0; n < BLOCK_SIZE; n++) {
-                sum += block[m][n] * COSINES[m][p] * COSINES[n][q];
+        // Nothing after the last non-zero coefficient has to be looked at
+        int last = offset + BLOCK_LENGTH - 1;
+        while (last > offset && coefficients[last] == 0) {
+            last--;
+        }
+
+        int zeroRun = 0;
+        // The DC coefficient at index 0 is coded separately
+        for (int index = offset + 1; index <= last; index++) {
+            int value = coefficients[index];
+            if (value == 0) {
+                zeroRun++;
+                continue;
+            }
+            while (zeroRun > 15) {
+                symbols[count++] = ZRL << 16;
+                zeroRun -= 16;
             }
+            size = bitLength(value);
+            symbols[count++] = (((zeroRun << 4) | size) << 16) | amplitudeBits(value, size);
+            zeroRun = 0;
         }
-        return sum;
+        // This is added based on JPEG RLE compression rules
+        if (last < offset + BLOCK_LENGTH - 1) {
+            symbols[count++] = EOB << 16;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the quantizer for a type and compression level. It is built on first use and then
+     * reused for every block and every following image, until the DCT engine or the base tables change.
+     *
+     * @param type             the quantization type; must be either {@code LUMINANCE} or {@code CHROMINANCE}
+     * @param compressionLevel the compression level (1-99)
+     * @return the cached quantizer
+     * @throws IllegalArgumentException if the compression level is out of range
+     */
+    Quantizer quantizer(String type, int compressionLevel) {
+        if (compressionLevel < 1 || compressionLevel > 99) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 99, got " + compressionLevel);
+        }
+        return quantizers.computeIfAbsent(new QuantizerKey(type, compressionLevel),
+                key -> new Quantizer(calculateQuantizationTable(type, compressionLevel), dct.outputScale()));
+    }
+
+    /**
+     * Calculates the quantization table for a specified type (luminance or chrominance)
+     * and compression level. The table is scaled based on the compression level to
+     * adjust the balance between quality and compression ratio.
+     *
+     * @param type             the quantization type; must be either {@code LUMINANCE} or {@code CHROMINANCE}
+     * @param compressionLevel the compression level between 1 and 99,
+     *                         where 1 represents the highest compression and 99 represents the lowest compression
+     * @return an array representing the scaled quantization table values for an 8x8 block
+     */
+    private int[] calculateQuantizationTable(String type, float compressionLevel) {
+        JPEGQTable Table = baseTables.get(type);
+        // Making sure the compression level is between 1 and 99
+        compressionLevel = Math.max(1, Math.min(99, compressionLevel));
+
+        // Based on a rule
+        float scaleFactor;
+        if (compressionLevel < 50) {
+            scaleFactor = (float) (50.0 / compressionLevel);
+        } else {
+            scaleFactor = (float) (2 - (compressionLevel / 50.0));
+        }
+        return Table.getScaledInstance(scaleFactor, true).getTable();
     }
 }
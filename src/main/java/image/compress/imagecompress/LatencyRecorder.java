@@ -0,0 +1,53 @@
+package image.compress.imagecompress;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent operations and reports their percentiles.
+ * Only a fixed window of samples is kept, so the percentiles follow the current load instead of the whole uptime.
+ */
+public class LatencyRecorder {
+    private final long[] samples;
+    private long count;
+
+    /**
+     * @param window how many of the most recent samples the percentiles are computed from
+     */
+    public LatencyRecorder(int window) {
+        this.samples = new long[window];
+    }
+
+    /**
+     * @param nanos the latency of one operation in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        samples[(int) (count % samples.length)] = nanos;
+        count++;
+    }
+
+    /**
+     * @return how many latencies were recorded in total, including the ones that left the window
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * Returns the given percentile of the latencies in the window, using the nearest-rank method.
+     *
+     * @param percentile between 0 and 100
+     * @return the latency in nanoseconds, or 0 if nothing was recorded yet
+     */
+    public long percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+        }
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
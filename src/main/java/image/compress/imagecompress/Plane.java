@@ -0,0 +1,85 @@
+package image.compress.imagecompress;
+
+import java.util.Arrays;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+
+/**
+ * One colour plane stored as a flat row-major float array.
+ * Rows are {@code stride} samples long and the plane is padded on the right and bottom to a whole
+ * number of 8x8 blocks, so blocks can be read without bounds checks. After {@link #padEdges()} the padding
+ * repeats the last column and row, which keeps the edge blocks smooth and cheap to encode.
+ */
+public class Plane {
+    final int width;
+    final int height;
+    final int stride;
+    final int paddedHeight;
+    final float[] samples;
+
+    public Plane(int width, int height) {
+        this(width, height, roundUpToBlock(width) / BLOCK_SIZE, roundUpToBlock(height) / BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a plane padded to the given number of blocks, for components that must cover whole MCUs.
+     */
+    public Plane(int width, int height, int blocksWide, int blocksHigh) {
+        this.width = width;
+        this.height = height;
+        this.stride = blocksWide * BLOCK_SIZE;
+        this.paddedHeight = blocksHigh * BLOCK_SIZE;
+        this.samples = new float[stride * paddedHeight];
+    }
+
+    private static int roundUpToBlock(int size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    int blocksWide() {
+        return stride / BLOCK_SIZE;
+    }
+
+    int blocksHigh() {
+        return paddedHeight / BLOCK_SIZE;
+    }
+
+    /**
+     * @return the index of the top left sample of a block; the plane is padded, so the block lies fully inside it
+     */
+    int blockOffset(int blockRow, int blockColumn) {
+        return blockRow * BLOCK_SIZE * stride + blockColumn * BLOCK_SIZE;
+    }
+
+    /**
+     * Returns whether all 64 samples of a block are the same. Such a block only has a DC coefficient.
+     *
+     * @param offset the index of the top left sample of the block
+     */
+    boolean isUniformBlock(int offset) {
+        float first = samples[offset];
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            int rowStart = offset + row * stride;
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                if (samples[rowStart + column] != first) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills the padding to the right of and below the image with copies of the last column and row.
+     */
+    void padEdges() {
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * stride;
+            Arrays.fill(samples, rowStart + width, rowStart + stride, samples[rowStart + width - 1]);
+        }
+        int lastRow = (height - 1) * stride;
+        for (int y = height; y < paddedHeight; y++) {
+            System.arraycopy(samples, lastRow, samples, y * stride, stride);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package image.compress.imagecompress;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+import static image.compress.imagecompress.JpegCompress.ZIGZAG_ORDER;
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+
+/**
+ * Reconstructs an image from its quantized coefficients, without writing and parsing the JFIF file.
+ * Besides the full image it can render reduced sizes much faster:
+ * at 1/8 scale every block becomes one pixel taken from its DC coefficient alone, and at 1/4 and 1/2 scale
+ * only the lowest 2x2 or 4x4 coefficients of a block go through a smaller inverse DCT.
+ * Chroma is upsampled by repeating samples.
+ */
+public class PreviewDecoder {
+    // BASIS[n][x * n + k] is the weight of frequency k for output sample x of an n point inverse DCT
+    private static final double[][] BASIS = new double[BLOCK_SIZE + 1][];
+
+    static {
+        for (int size = 1; size <= BLOCK_SIZE; size <<= 1) {
+            double[] basis = new double[size * size];
+            for (int x = 0; x < size; x++) {
+                for (int k = 0; k < size; k++) {
+                    // The scale of the 8 point transform, so the lower frequencies keep their weight
+                    basis[x * size + k] = k == 0
+                            ? 1 / Math.sqrt(BLOCK_SIZE)
+                            : Math.cos((2 * x + 1) * k * Math.PI / (2 * size)) / 2;
+                }
+            }
+            BASIS[size] = basis;
+        }
+    }
+
+    private final double[] dequantized = new double[BLOCK_LENGTH];
+    private final double[] rows = new double[BLOCK_LENGTH];
+
+    /**
+     * Decodes a quantized image at a reduced scale.
+     *
+     * @param input  the quantized image
+     * @param scale  the reduction factor: 1 for the full image, or 2, 4 or 8
+     * @param target an image to decode into if it has the right size and type, or {@code null}
+     * @return the decoded image, {@code ceil(width / scale)} by {@code ceil(height / scale)} pixels of type RGB
+     */
+    public BufferedImage decode(QuantizedImage input, int scale, BufferedImage target) {
+        if (scale != 1 && scale != 2 && scale != 4 && scale != 8) {
+            throw new IllegalArgumentException("Scale must be 1, 2, 4 or 8, got " + scale);
+        }
+        int size = BLOCK_SIZE / scale;
+        int width = (input.width + scale - 1) / scale;
+        int height = (input.height + scale - 1) / scale;
+        if (target == null || target.getWidth() != width || target.getHeight() != height
+                || target.getType() != BufferedImage.TYPE_INT_RGB) {
+            target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+
+        // Step 1: Dequantization and inverse DCT of every component
+        QuantizedComponent[] components = input.components;
+        float[][] planes = new float[components.length][];
+        for (int c = 0; c < components.length; c++) {
+            planes[c] = decodeComponent(components[c], input.quantizers[components[c].tableIndex].table, size);
+        }
+
+        // Step 2: Upsampling and YCbCr to RGB
+        int[] pixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        QuantizedComponent luma = components[0];
+        int lumaStride = luma.blocksWide * size;
+        int chromaStride = components.length > 1 ? components[1].blocksWide * size : 0;
+        for (int y = 0; y < height; y++) {
+            int lumaRow = y * lumaStride;
+            int chromaRow = y / luma.verticalSampling * chromaStride;
+            for (int x = 0; x < width; x++) {
+                float luminance = planes[0][lumaRow + x];
+                int rgb;
+                if (components.length == 1) {
+                    int gray = clamp(luminance);
+                    rgb = (gray << 16) | (gray << 8) | gray;
+                } else {
+                    int chroma = chromaRow + x / luma.horizontalSampling;
+                    float cb = planes[1][chroma] - 128;
+                    float cr = planes[2][chroma] - 128;
+                    int red = clamp(luminance + 1.402f * cr);
+                    int green = clamp(luminance - 0.344136f * cb - 0.714136f * cr);
+                    int blue = clamp(luminance + 1.772f * cb);
+                    rgb = (red << 16) | (green << 8) | blue;
+                }
+                pixels[y * width + x] = rgb;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Dequantizes the blocks of one component and applies the inverse DCT, keeping only
+     * the lowest {@code size} by {@code size} coefficients of each block.
+     *
+     * @return the samples of the component, {@code size} samples per block in each direction, with 128 added back
+     */
+    private float[] decodeComponent(QuantizedComponent component, int[] table, int size) {
+        int stride = component.blocksWide * size;
+        float[] plane = new float[stride * component.blocksHigh * size];
+        double[] basis = BASIS[size];
+
+        for (int blockRow = 0; blockRow < component.blocksHigh; blockRow++) {
+            for (int blockColumn = 0; blockColumn < component.blocksWide; blockColumn++) {
+                int offset = component.offset(blockRow, blockColumn);
+                int origin = blockRow * size * stride + blockColumn * size;
+
+                if (size == 1) {
+                    // The DC coefficient is eight times the mean of the block
+                    plane[origin] = (float) (component.coefficients[offset] * table[0] / (double) BLOCK_SIZE + 128);
+                    continue;
+                }
+
+                // Dequantize the coefficients that are used, back into row-major order
+                for (int v = 0; v < size; v++) {
+                    for (int u = 0; u < size; u++) {
+                        int index = v * BLOCK_SIZE + u;
+                        dequantized[index] = component.coefficients[offset + ZIGZAG_ORDER[index]] * table[index];
+                    }
+                }
+                // Rows first: rows[v * size + x] for each used vertical frequency v
+                for (int v = 0; v < size; v++) {
+                    for (int x = 0; x < size; x++) {
+                        double sum = 0;
+                        for (int u = 0; u < size; u++) {
+                            sum += basis[x * size + u] * dequantized[v * BLOCK_SIZE + u];
+                        }
+                        rows[v * size + x] = sum;
+                    }
+                }
+                // Then columns
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        double sum = 0;
+                        for (int v = 0; v < size; v++) {
+                            sum += basis[y * size + v] * rows[v * size + x];
+                        }
+                        plane[origin + y * stride + x] = (float) (sum + 128);
+                    }
+                }
+            }
+        }
+        return plane;
+    }
+
+    private static int clamp(float value) {
+        return Math.max(0, Math.min(255, (int) (value + 0.5f)));
+    }
+}
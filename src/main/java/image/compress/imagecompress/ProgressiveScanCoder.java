@@ -0,0 +1,323 @@
+package image.compress.imagecompress;
+
+import java.util.Arrays;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+
+/**
+ * Entropy codes one scan of a progressive JPEG file, as described in Annex G of the JPEG standard.
+ * A coder either counts the Huffman symbols of the scan, to build the tables the scan is written with,
+ * or writes the scan with those tables; both go through the same code, so they always agree.
+ * <p>
+ * AC scans code runs of blocks that have nothing left in the band with a single EOBRUN symbol. In refinement
+ * scans, the correction bits of coefficients that were sent before are held back until the symbol they belong to
+ * is written.
+ */
+final class ProgressiveScanCoder {
+    private static final int ZRL = 0xF0;
+    // The longest run of blocks one EOBRUN symbol can stand for
+    private static final int MAX_END_OF_BAND_RUN = 0x7FFF;
+    // The run is ended before the held back correction bits could overflow with the bits of another block
+    private static final int MAX_CORRECTION_BITS = 1000;
+
+    private final ScanScript.Scan scan;
+    // Set when counting
+    private final long[][] dcFrequencies;
+    private final long[][] acFrequencies;
+    // Set when writing
+    private final HuffmanTable[] dcTables;
+    private final HuffmanTable[] acTables;
+    private final BitWriter writer;
+
+    // The DC coefficient of the previous block of every component of the scan, after the point transform
+    private final int[] lastDc;
+    // The AC table of the component of an AC scan, which the EOBRUN symbols use
+    private int endOfBandTable;
+    private int endOfBandRun;
+    // The correction bits of the blocks in the current EOBRUN, followed by those of the current block
+    private final byte[] correctionBits = new byte[MAX_CORRECTION_BITS];
+    private int runCorrectionBits;
+    // The magnitudes of the coefficients of the current block after the point transform
+    private final int[] magnitudes = new int[BLOCK_LENGTH];
+
+    /**
+     * Creates a coder that counts the Huffman symbols of a scan.
+     *
+     * @param tableCount the number of Huffman tables of each class the components use
+     */
+    ProgressiveScanCoder(ScanScript.Scan scan, int tableCount) {
+        this(scan, new long[tableCount][256], new long[tableCount][256], null, null, null);
+    }
+
+    /**
+     * Creates a coder that writes a scan.
+     *
+     * @param dcTables the DC tables, indexed by the table index of the components
+     * @param acTables the AC tables, indexed the same way
+     * @param writer   receives the entropy-coded data of the scan
+     */
+    ProgressiveScanCoder(ScanScript.Scan scan, HuffmanTable[] dcTables, HuffmanTable[] acTables, BitWriter writer) {
+        this(scan, null, null, dcTables, acTables, writer);
+    }
+
+    private ProgressiveScanCoder(ScanScript.Scan scan, long[][] dcFrequencies, long[][] acFrequencies,
+                                 HuffmanTable[] dcTables, HuffmanTable[] acTables, BitWriter writer) {
+        this.scan = scan;
+        this.dcFrequencies = dcFrequencies;
+        this.acFrequencies = acFrequencies;
+        this.dcTables = dcTables;
+        this.acTables = acTables;
+        this.writer = writer;
+        this.lastDc = new int[scan.components().length];
+    }
+
+    /**
+     * @return the DC symbol counts by table and symbol, after counting
+     */
+    long[][] dcFrequencies() {
+        return dcFrequencies;
+    }
+
+    /**
+     * @return the AC symbol counts by table and symbol, after counting
+     */
+    long[][] acFrequencies() {
+        return acFrequencies;
+    }
+
+    /**
+     * Codes every block of the scan. A scan of several components goes through the image MCU by MCU, like a
+     * sequential scan. A scan of one component goes through its blocks in raster order, and only through those
+     * that cover the component; the blocks that only pad out the last MCUs are not part of such a scan.
+     *
+     * @param image           the quantized image
+     * @param restartInterval the number of MCUs between restart markers, or 0 for none
+     */
+    void code(QuantizedImage image, int restartInterval) {
+        QuantizedComponent[] frame = image.components;
+        int[] components = scan.components();
+        int mcu = 0;
+        if (components.length == 1) {
+            QuantizedComponent component = frame[components[0]];
+            endOfBandTable = component.tableIndex;
+            int maxHorizontal = 1;
+            int maxVertical = 1;
+            for (QuantizedComponent other : frame) {
+                maxHorizontal = Math.max(maxHorizontal, other.horizontalSampling);
+                maxVertical = Math.max(maxVertical, other.verticalSampling);
+            }
+            int blocksWide = ceilDiv(ceilDiv(image.width * component.horizontalSampling, maxHorizontal), BLOCK_SIZE);
+            int blocksHigh = ceilDiv(ceilDiv(image.height * component.verticalSampling, maxVertical), BLOCK_SIZE);
+            for (int blockRow = 0; blockRow < blocksHigh; blockRow++) {
+                for (int blockColumn = 0; blockColumn < blocksWide; blockColumn++) {
+                    restartIfDue(mcu++, restartInterval);
+                    codeBlock(component, 0, component.offset(blockRow, blockColumn));
+                }
+            }
+        } else {
+            for (int mcuRow = 0; mcuRow < image.mcusHigh; mcuRow++) {
+                for (int mcuColumn = 0; mcuColumn < image.mcusWide; mcuColumn++) {
+                    restartIfDue(mcu++, restartInterval);
+                    for (int i = 0; i < components.length; i++) {
+                        QuantizedComponent component = frame[components[i]];
+                        for (int v = 0; v < component.verticalSampling; v++) {
+                            for (int h = 0; h < component.horizontalSampling; h++) {
+                                codeBlock(component, i, component.offset(mcuRow * component.verticalSampling + v,
+                                        mcuColumn * component.horizontalSampling + h));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        flushEndOfBandRun();
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Ends the restart interval before the given MCU if one ends there: everything pending is written,
+     * then the marker, and the prediction starts again.
+     */
+    private void restartIfDue(int mcu, int restartInterval) {
+        if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+            flushEndOfBandRun();
+            if (writer != null) {
+                JpegCompress.restart(writer, mcu / restartInterval - 1);
+            }
+            Arrays.fill(lastDc, 0);
+        }
+    }
+
+    private void codeBlock(QuantizedComponent component, int scanIndex, int offset) {
+        if (scan.isDc()) {
+            if (scan.isRefinement()) {
+                // The next bit of the DC coefficient, without a Huffman code
+                bits((component.coefficients[offset] >> scan.successiveLow()) & 1, 1);
+            } else {
+                codeDcFirst(component, scanIndex, offset);
+            }
+        } else if (scan.isRefinement()) {
+            codeAcRefinement(component, offset);
+        } else {
+            codeAcFirst(component, offset);
+        }
+    }
+
+    /**
+     * Codes the DC coefficient without its lowest bits, as the difference to the previous block like in a
+     * sequential scan.
+     */
+    private void codeDcFirst(QuantizedComponent component, int scanIndex, int offset) {
+        // An arithmetic shift, as the standard defines the point transform of DC coefficients
+        int dc = component.coefficients[offset] >> scan.successiveLow();
+        int difference = dc - lastDc[scanIndex];
+        lastDc[scanIndex] = dc;
+        int size = JpegCompress.bitLength(difference);
+        dcSymbol(component.tableIndex, size);
+        bits(JpegCompress.amplitudeBits(difference, size), size);
+    }
+
+    /**
+     * Codes the band of AC coefficients without their lowest bits. Coefficients whose magnitude has no bits left
+     * count as zeros, and a block with nothing left after its last coefficient joins the current EOBRUN.
+     */
+    private void codeAcFirst(QuantizedComponent component, int offset) {
+        int table = component.tableIndex;
+        int shift = scan.successiveLow();
+        int zeroRun = 0;
+        for (int k = scan.spectralStart(); k <= scan.spectralEnd(); k++) {
+            int value = component.coefficients[offset + k];
+            // The point transform of AC coefficients shifts the magnitude, so -1 becomes 0 and not -1
+            int magnitude = Math.abs(value) >> shift;
+            if (magnitude == 0) {
+                zeroRun++;
+                continue;
+            }
+            flushEndOfBandRun();
+            while (zeroRun > 15) {
+                acSymbol(table, ZRL);
+                zeroRun -= 16;
+            }
+            int size = JpegCompress.bitLength(magnitude);
+            acSymbol(table, (zeroRun << 4) | size);
+            bits(JpegCompress.amplitudeBits(value < 0 ? -magnitude : magnitude, size), size);
+            zeroRun = 0;
+        }
+        if (zeroRun > 0) {
+            endOfBandRun++;
+            if (endOfBandRun == MAX_END_OF_BAND_RUN) {
+                flushEndOfBandRun();
+            }
+        }
+    }
+
+    /**
+     * Codes the next bit of every AC coefficient of the band. Coefficients that become non-zero with this bit are
+     * coded like in a first scan, with a magnitude of 1 and a sign bit. Every coefficient that was already non-zero
+     * only adds a correction bit, which follows the next symbol that is written.
+     */
+    private void codeAcRefinement(QuantizedComponent component, int offset) {
+        int table = component.tableIndex;
+        int shift = scan.successiveLow();
+        int start = scan.spectralStart();
+        int end = scan.spectralEnd();
+
+        // The last coefficient that becomes non-zero: zero runs after it can be left to the EOBRUN
+        int lastNew = 0;
+        for (int k = start; k <= end; k++) {
+            int magnitude = Math.abs(component.coefficients[offset + k]) >> shift;
+            magnitudes[k] = magnitude;
+            if (magnitude == 1) {
+                lastNew = k;
+            }
+        }
+
+        int zeroRun = 0;
+        // The correction bits of this block follow those of the blocks in the EOBRUN
+        int blockBitsStart = runCorrectionBits;
+        int blockBits = 0;
+        for (int k = start; k <= end; k++) {
+            int magnitude = magnitudes[k];
+            if (magnitude == 0) {
+                zeroRun++;
+                continue;
+            }
+            while (zeroRun > 15 && k <= lastNew) {
+                flushEndOfBandRun();
+                acSymbol(table, ZRL);
+                zeroRun -= 16;
+                writeCorrectionBits(blockBitsStart, blockBits);
+                blockBitsStart = 0;
+                blockBits = 0;
+            }
+            if (magnitude > 1) {
+                correctionBits[blockBitsStart + blockBits++] = (byte) (magnitude & 1);
+                continue;
+            }
+            flushEndOfBandRun();
+            acSymbol(table, (zeroRun << 4) | 1);
+            bits(component.coefficients[offset + k] < 0 ? 0 : 1, 1);
+            writeCorrectionBits(blockBitsStart, blockBits);
+            blockBitsStart = 0;
+            blockBits = 0;
+            zeroRun = 0;
+        }
+        if (zeroRun > 0 || blockBits > 0) {
+            endOfBandRun++;
+            runCorrectionBits += blockBits;
+            if (endOfBandRun == MAX_END_OF_BAND_RUN || runCorrectionBits > MAX_CORRECTION_BITS - BLOCK_LENGTH + 1) {
+                flushEndOfBandRun();
+            }
+        }
+    }
+
+    /**
+     * Writes the pending EOBRUN, if there is one, followed by the correction bits of its blocks.
+     */
+    private void flushEndOfBandRun() {
+        if (endOfBandRun > 0) {
+            // The size category of the run, whose highest bit is implied by the symbol
+            int size = JpegCompress.bitLength(endOfBandRun) - 1;
+            acSymbol(endOfBandTable, size << 4);
+            bits(endOfBandRun & ((1 << size) - 1), size);
+            endOfBandRun = 0;
+            writeCorrectionBits(0, runCorrectionBits);
+            runCorrectionBits = 0;
+        }
+    }
+
+    private void writeCorrectionBits(int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            bits(correctionBits[i], 1);
+        }
+    }
+
+    private void dcSymbol(int table, int symbol) {
+        if (writer == null) {
+            dcFrequencies[table][symbol]++;
+        } else {
+            writer.writeBits(dcTables[table].codes[symbol], dcTables[table].codeLengths[symbol]);
+        }
+    }
+
+    private void acSymbol(int table, int symbol) {
+        if (writer == null) {
+            acFrequencies[table][symbol]++;
+        } else {
+            writer.writeBits(acTables[table].codes[symbol], acTables[table].codeLengths[symbol]);
+        }
+    }
+
+    private void bits(int bits, int length) {
+        if (writer != null) {
+            writer.writeBits(bits, length);
+        }
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,42 @@
+package image.compress.imagecompress;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+
+/**
+ * The quantized DCT coefficients of one colour component.
+ * Blocks are stored one after another in raster order (left to right, top to bottom),
+ * each as 64 coefficients in zig-zag order. Every block has a fixed slot, so workers can fill
+ * blocks in any order and the result is still the same.
+ */
+public class QuantizedComponent {
+    public static final int BLOCK_LENGTH = BLOCK_SIZE * BLOCK_SIZE;
+
+    // Frame parameters: component identifier, sampling factors and the quantization and Huffman tables it uses
+    final int id;
+    final int horizontalSampling;
+    final int verticalSampling;
+    final int tableIndex;
+
+    final int blocksWide;
+    final int blocksHigh;
+    final short[] coefficients;
+
+    public QuantizedComponent(int id, int horizontalSampling, int verticalSampling, int tableIndex,
+                              int blocksWide, int blocksHigh) {
+        this.id = id;
+        this.horizontalSampling = horizontalSampling;
+        this.verticalSampling = verticalSampling;
+        this.tableIndex = tableIndex;
+        this.blocksWide = blocksWide;
+        this.blocksHigh = blocksHigh;
+        this.coefficients = new short[blocksWide * blocksHigh * BLOCK_LENGTH];
+    }
+
+    /**
+     * Returns the offset of the first coefficient of the block at the given block row and column.
+     */
+    int offset(int blockRow, int blockColumn) {
+        return (blockRow * blocksWide + blockColumn) * BLOCK_LENGTH;
+    }
+
+}
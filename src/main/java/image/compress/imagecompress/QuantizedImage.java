@@ -0,0 +1,34 @@
+package image.compress.imagecompress;
+
+/**
+ * An image after quantization: everything that goes into the JFIF file except the entropy coding.
+ * It is written by {@link JpegCompress#compressImage(QuantizedImage, java.io.OutputStream)} and can be
+ * reconstructed without going through the file by {@link PreviewDecoder}.
+ */
+public class QuantizedImage {
+    final int width;
+    final int height;
+    final int mcusWide;
+    final int mcusHigh;
+    final QuantizedComponent[] components;
+    // Indexed by the table index of the components
+    final Quantizer[] quantizers;
+
+    QuantizedImage(int width, int height, int mcusWide, int mcusHigh,
+                   QuantizedComponent[] components, Quantizer[] quantizers) {
+        this.width = width;
+        this.height = height;
+        this.mcusWide = mcusWide;
+        this.mcusHigh = mcusHigh;
+        this.components = components;
+        this.quantizers = quantizers;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
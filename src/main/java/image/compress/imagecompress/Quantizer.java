@@ -0,0 +1,89 @@
+package image.compress.imagecompress;
+
+import java.util.Arrays;
+
+import static image.compress.imagecompress.JpegCompress.ZIGZAG_ORDER;
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+
+/**
+ * Quantizes DCT blocks with one quantization table.
+ * The divisors, including the scale factors of the DCT engine, are turned into reciprocals once,
+ * so quantizing a block takes a multiplication per coefficient instead of a division.
+ */
+public class Quantizer {
+    // Largest magnitudes quantized coefficients may have in a baseline JPEG with 8-bit samples
+    private static final int MAX_DC_COEFFICIENT = 2047;
+    private static final int MAX_AC_COEFFICIENT = 1023;
+
+    final int[] table;
+    private final double[] reciprocals = new double[BLOCK_LENGTH];
+    // The same reciprocals in zig-zag order, for coefficients that are already stored in that order
+    private final double[] zigZagReciprocals = new double[BLOCK_LENGTH];
+
+    /**
+     * @param table    the quantization table in row-major order, as it is written to the file
+     * @param dctScale the scale factors of the DCT engine whose output this quantizer receives
+     */
+    public Quantizer(int[] table, double[] dctScale) {
+        this.table = table;
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            reciprocals[i] = 1.0 / (table[i] * dctScale[i]);
+            zigZagReciprocals[ZIGZAG_ORDER[i]] = reciprocals[i];
+        }
+    }
+
+    /**
+     * Performs quantization on an 8x8 block of values from the DCT.
+     * Each value in the block is divided by a corresponding quantization value and rounded
+     * to the nearest integer, halves away from zero. The results are stored in zig-zag scanning order.
+     *
+     * @param block  the 8x8 block of DCT-transformed values to be quantized, in row-major order
+     * @param output receives the quantized coefficients in zig-zag order
+     * @param offset the index in {@code output} of the first coefficient of the block
+     */
+    void quantize(double[] block, short[] output, int offset) {
+        output[offset] = clamp(round(block[0] * reciprocals[0]), MAX_DC_COEFFICIENT);
+        for (int i = 1; i < BLOCK_LENGTH; i++) {
+            output[offset + ZIGZAG_ORDER[i]] = clamp(round(block[i] * reciprocals[i]), MAX_AC_COEFFICIENT);
+        }
+    }
+
+    /**
+     * Quantizes a block whose AC coefficients are all zero, like {@link #quantize(double[], short[], int)}
+     * would, without looking at the other 63 coefficients.
+     *
+     * @param dc     the DC coefficient from the DCT
+     * @param output receives the quantized coefficients in zig-zag order
+     * @param offset the index in {@code output} of the first coefficient of the block
+     */
+    void quantizeDc(double dc, short[] output, int offset) {
+        output[offset] = clamp(round(dc * reciprocals[0]), MAX_DC_COEFFICIENT);
+        Arrays.fill(output, offset + 1, offset + BLOCK_LENGTH, (short) 0);
+    }
+
+    /**
+     * Quantizes a block of cached DCT coefficients like {@link #quantize(double[], short[], int)}.
+     *
+     * @param input       the DCT coefficients, in zig-zag order per block
+     * @param inputOffset the index in {@code input} of the first coefficient of the block
+     * @param output      receives the quantized coefficients in zig-zag order
+     * @param offset      the index in {@code output} of the first coefficient of the block
+     */
+    void quantize(float[] input, int inputOffset, short[] output, int offset) {
+        output[offset] = clamp(round(input[inputOffset] * zigZagReciprocals[0]), MAX_DC_COEFFICIENT);
+        for (int i = 1; i < BLOCK_LENGTH; i++) {
+            output[offset + i] = clamp(round(input[inputOffset + i] * zigZagReciprocals[i]), MAX_AC_COEFFICIENT);
+        }
+    }
+
+    /**
+     * Rounds to the nearest integer, halves away from zero.
+     */
+    private static int round(double value) {
+        return (int) (value + Math.copySign(0.5, value));
+    }
+
+    private static short clamp(int value, int max) {
+        return (short) Math.max(-max, Math.min(max, value));
+    }
+}
@@ -0,0 +1,83 @@
+package image.compress.imagecompress;
+
+import java.util.Arrays;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+
+/**
+ * Direct evaluation of the 2D DCT formula, one coefficient at a time.
+ * It needs 4096 multiply-adds per block and is kept as the reference the faster engines are checked against.
+ */
+public class ReferenceDCT implements ForwardDCT {
+    public static final double[][] COSINES = precomputeCosines();
+    static final double[] UNIT_SCALE = unitScale();
+
+    // The coefficients until the whole block is transformed; one engine is shared by every worker thread
+    private final ThreadLocal<double[]> tempBlocks = ThreadLocal.withInitial(() -> new double[BLOCK_SIZE * BLOCK_SIZE]);
+
+    private static double[][] precomputeCosines() {
+        double[][] cosines = new double[BLOCK_SIZE][BLOCK_SIZE];
+
+        for (int m = 0; m < BLOCK_SIZE; m++) {
+            for (int p = 0; p < BLOCK_SIZE; p++) {
+                cosines[m][p] = Math.cos(((2 * m + 1) * p * Math.PI) / (2 * BLOCK_SIZE));
+            }
+        }
+        return cosines;
+    }
+
+    private static double[] unitScale() {
+        double[] scale = new double[BLOCK_SIZE * BLOCK_SIZE];
+        Arrays.fill(scale, 1.0);
+        return scale;
+    }
+
+    @Override
+    public void transform(double[] block) {
+        // Formula from
+        // https://www.mathworks.com/help/images/discrete-cosine-transform.html
+
+        // c1 is used when q or p is 0
+        double c1 = Math.sqrt((double) 1 / BLOCK_SIZE);
+        // Otherwise we use c2
+        double c2 = Math.sqrt((double) 2 / BLOCK_SIZE);
+
+        double[] tempBlock = tempBlocks.get();
+
+        for (int p = 0; p < BLOCK_SIZE; p++) {
+            for (int q = 0; q < BLOCK_SIZE; q++) {
+
+                double sum = computeDCTCoefficient(block, p, q);
+                double alfaP = (p == 0) ? c1 : c2;
+                double alfaQ = (q == 0) ? c1 : c2;
+                tempBlock[p * BLOCK_SIZE + q] = sum * alfaP * alfaQ;
+            }
+        }
+        System.arraycopy(tempBlock, 0, block, 0, tempBlock.length);
+    }
+
+    @Override
+    public double[] outputScale() {
+        return UNIT_SCALE;
+    }
+
+    /**
+     * Computes a single coefficient for DCT at the specified indices `p` and `q`.
+     *
+     * @param block the 8x8 block of pixel values to be transformed
+     * @param p     the row index of the frequency in the DCT result
+     * @param q     the column index of the frequency in the DCT result
+     * @return the computed DCT coefficient for the specified  indices `p` and `q`
+     */
+    private double computeDCTCoefficient(double[] block, int p, int q) {
+
+        double sum = 0;
+        //Not BLOCK_SIZE -1, as that should end at 6
+        for (int m = 0; m < BLOCK_SIZE; m++) {
+            for (int n = 0; n < BLOCK_SIZE; n++) {
+                sum += block[m * BLOCK_SIZE + n] * COSINES[m][p] * COSINES[n][q];
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,50 @@
+package image.compress.imagecompress;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Supplies an image a band of rows at a time, for encoding images that do not fit in memory as a whole.
+ *
+ * @see JpegCompress#compressStream(RowSource, int, java.io.OutputStream)
+ */
+public interface RowSource {
+    int getWidth() throws IOException;
+
+    int getHeight() throws IOException;
+
+    /**
+     * Reads a band of full-width rows. The encoder asks for the bands from top to bottom, each once.
+     *
+     * @param firstRow the first row of the band
+     * @param rowCount the number of rows; the band never reaches past the bottom of the image
+     * @return an image {@code getWidth()} pixels wide and {@code rowCount} rows high
+     * @throws IOException if the rows cannot be read
+     */
+    BufferedImage readRows(int firstRow, int rowCount) throws IOException;
+
+    /**
+     * Returns a source reading the rows of an image that is already in memory, without copying them.
+     *
+     * @param image the image to read from
+     * @return a source backed by the image
+     */
+    static RowSource of(BufferedImage image) {
+        return new RowSource() {
+            @Override
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            @Override
+            public BufferedImage readRows(int firstRow, int rowCount) {
+                return image.getSubimage(0, firstRow, image.getWidth(), rowCount);
+            }
+        };
+    }
+}
@@ -0,0 +1,228 @@
+package image.compress.imagecompress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+
+/**
+ * The scans of a progressive JPEG file. Every scan sends a band of coefficients in zig-zag order (spectral
+ * selection) of one or more components, either at full precision or without its lowest bits, which later scans
+ * send one bit at a time (successive approximation). A decoder can show the image after the first scan and
+ * sharpen it with every scan that follows.
+ * <p>
+ * Scripts are written like the scan files of the cjpeg tool: one scan per entry, ended by a semicolon, as the
+ * component numbers followed by a colon and the first and last coefficient, the bit position before the scan
+ * and the bit position after it. Numbers are separated by spaces, commas or a dash, and {@code #} starts a
+ * comment. For example, {@code 0,1,2: 0-0, 0, 1;} sends the DC coefficients of all components without their
+ * lowest bit.
+ */
+public final class ScanScript {
+    /**
+     * The DC coefficients of all components first, then the lowest AC coefficients of the luminance,
+     * then the rest. Every coefficient is sent at full precision in a single scan.
+     */
+    public static final ScanScript SPECTRAL_SELECTION = new ScanScript(ScanScript::spectralSelection);
+    /**
+     * The progression of libjpeg: like {@link #SPECTRAL_SELECTION}, but the first scans leave out the lowest bits,
+     * which come in later scans. The first scans are smaller, so the first preview arrives sooner.
+     */
+    public static final ScanScript SUCCESSIVE_APPROXIMATION = new ScanScript(ScanScript::successiveApproximation);
+
+    // The highest bit position a scan may start at for 8-bit samples
+    private static final int MAX_BIT_POSITION = 10;
+    private static final int MAX_SCAN_COMPONENTS = 4;
+
+    /**
+     * One scan.
+     *
+     * @param components     the indices of the components in the frame, in ascending order
+     * @param spectralStart  the first coefficient in zig-zag order
+     * @param spectralEnd    the last coefficient in zig-zag order
+     * @param successiveHigh the bit position the previous scan of these coefficients stopped at, or 0 for their
+     *                       first scan
+     * @param successiveLow  the bit position this scan stops at: the lowest bits that are not sent yet
+     */
+    record Scan(int[] components, int spectralStart, int spectralEnd, int successiveHigh, int successiveLow) {
+        boolean isDc() {
+            return spectralStart == 0;
+        }
+
+        boolean isRefinement() {
+            return successiveHigh != 0;
+        }
+    }
+
+    private final IntFunction<List<Scan>> scans;
+
+    private ScanScript(IntFunction<List<Scan>> scans) {
+        this.scans = scans;
+    }
+
+    /**
+     * Reads a script in the format described above. The scans are checked against the components of every image
+     * the script is used for.
+     *
+     * @param text the script
+     * @return the script
+     * @throws IllegalArgumentException if the text is not a valid script
+     */
+    public static ScanScript parse(String text) {
+        List<Scan> scans = new ArrayList<>();
+        String withoutComments = text.replaceAll("#[^\\n]*", "");
+        for (String entry : withoutComments.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split(":", -1);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("A scan needs its components, a colon and four numbers: " + entry.trim());
+            }
+            int[] components = numbers(parts[0]);
+            int[] progression = numbers(parts[1]);
+            if (progression.length != 4) {
+                throw new IllegalArgumentException("A scan needs four numbers after the colon: " + entry.trim());
+            }
+            scans.add(new Scan(components, progression[0], progression[1], progression[2], progression[3]));
+        }
+        if (scans.isEmpty()) {
+            throw new IllegalArgumentException("The scan script has no scans");
+        }
+        List<Scan> fixed = List.copyOf(scans);
+        return new ScanScript(componentCount -> fixed);
+    }
+
+    private static int[] numbers(String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return new int[0];
+        }
+        try {
+            return Arrays.stream(trimmed.split("[\\s,-]+")).mapToInt(Integer::parseInt).toArray();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number in the scan script: " + trimmed, e);
+        }
+    }
+
+    /**
+     * Returns the scans for an image with the given number of components.
+     *
+     * @param componentCount the number of components of the frame
+     * @return the scans in the order they are written
+     * @throws IllegalArgumentException if the scans are not a valid progression for the components
+     */
+    List<Scan> scans(int componentCount) {
+        List<Scan> result = scans.apply(componentCount);
+        validate(result, componentCount);
+        return result;
+    }
+
+    /**
+     * Checks the rules of Annex G of the JPEG standard, and that every coefficient of every component
+     * ends up at full precision.
+     */
+    private static void validate(List<Scan> scans, int componentCount) {
+        // The bit position every coefficient was sent down to so far, or -1 before its first scan
+        int[][] sentTo = new int[componentCount][BLOCK_LENGTH];
+        for (int[] component : sentTo) {
+            Arrays.fill(component, -1);
+        }
+        for (Scan scan : scans) {
+            int[] components = scan.components();
+            if (components.length == 0 || components.length > MAX_SCAN_COMPONENTS) {
+                throw new IllegalArgumentException("A scan covers 1 to 4 components: " + describe(scan));
+            }
+            for (int i = 0; i < components.length; i++) {
+                if (components[i] < 0 || components[i] >= componentCount
+                        || (i > 0 && components[i] <= components[i - 1])) {
+                    throw new IllegalArgumentException("The components of a scan must be distinct, in ascending order "
+                            + "and below " + componentCount + ": " + describe(scan));
+                }
+            }
+            int start = scan.spectralStart();
+            int end = scan.spectralEnd();
+            if (start < 0 || end < start || end >= BLOCK_LENGTH) {
+                throw new IllegalArgumentException("The coefficients of a scan must lie between 0 and 63: " + describe(scan));
+            }
+            if (start == 0 && end != 0) {
+                throw new IllegalArgumentException("A DC scan cannot contain AC coefficients: " + describe(scan));
+            }
+            if (start > 0 && components.length != 1) {
+                throw new IllegalArgumentException("An AC scan covers exactly one component: " + describe(scan));
+            }
+            int high = scan.successiveHigh();
+            int low = scan.successiveLow();
+            if (low < 0 || low > MAX_BIT_POSITION || (high != 0 && high != low + 1)) {
+                throw new IllegalArgumentException("A scan must start at bit 0 or one bit above where it stops, "
+                        + "at most " + MAX_BIT_POSITION + ": " + describe(scan));
+            }
+            for (int component : components) {
+                if (start > 0 && sentTo[component][0] < 0) {
+                    throw new IllegalArgumentException("The DC coefficients of a component come before its AC "
+                            + "coefficients: " + describe(scan));
+                }
+                for (int k = start; k <= end; k++) {
+                    int expected = high == 0 ? -1 : high;
+                    if (sentTo[component][k] != expected) {
+                        throw new IllegalArgumentException("Coefficient " + k + " of component " + component
+                                + (expected < 0 ? " was already sent: " : " was not sent down to bit " + high + ": ")
+                                + describe(scan));
+                    }
+                    sentTo[component][k] = low;
+                }
+            }
+        }
+        for (int component = 0; component < componentCount; component++) {
+            for (int k = 0; k < BLOCK_LENGTH; k++) {
+                if (sentTo[component][k] != 0) {
+                    throw new IllegalArgumentException("The scan script does not send coefficient " + k
+                            + " of component " + component + " at full precision");
+                }
+            }
+        }
+    }
+
+    private static String describe(Scan scan) {
+        return Arrays.toString(scan.components()) + ": " + scan.spectralStart() + "-" + scan.spectralEnd()
+                + ", " + scan.successiveHigh() + ", " + scan.successiveLow();
+    }
+
+    private static List<Scan> spectralSelection(int componentCount) {
+        List<Scan> scans = new ArrayList<>();
+        scans.add(new Scan(allComponents(componentCount), 0, 0, 0, 0));
+        scans.add(new Scan(new int[]{0}, 1, 5, 0, 0));
+        for (int component = componentCount - 1; component > 0; component--) {
+            scans.add(new Scan(new int[]{component}, 1, 63, 0, 0));
+        }
+        scans.add(new Scan(new int[]{0}, 6, 63, 0, 0));
+        return scans;
+    }
+
+    private static List<Scan> successiveApproximation(int componentCount) {
+        List<Scan> scans = new ArrayList<>();
+        int[] all = allComponents(componentCount);
+        scans.add(new Scan(all, 0, 0, 0, 1));
+        scans.add(new Scan(new int[]{0}, 1, 5, 0, 2));
+        for (int component = componentCount - 1; component > 0; component--) {
+            scans.add(new Scan(new int[]{component}, 1, 63, 0, 1));
+        }
+        scans.add(new Scan(new int[]{0}, 6, 63, 0, 2));
+        scans.add(new Scan(new int[]{0}, 1, 63, 2, 1));
+        scans.add(new Scan(all, 0, 0, 1, 0));
+        for (int component = componentCount - 1; component > 0; component--) {
+            scans.add(new Scan(new int[]{component}, 1, 63, 1, 0));
+        }
+        scans.add(new Scan(new int[]{0}, 1, 63, 1, 0));
+        return scans;
+    }
+
+    private static int[] allComponents(int componentCount) {
+        int[] components = new int[componentCount];
+        for (int i = 0; i < componentCount; i++) {
+            components[i] = i;
+        }
+        return components;
+    }
+}
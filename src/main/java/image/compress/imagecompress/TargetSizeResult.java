@@ -0,0 +1,10 @@
+package image.compress.imagecompress;
+
+/**
+ * An image compressed to fit a size budget.
+ *
+ * @param data             the compressed image as a baseline JFIF file
+ * @param compressionLevel the highest compression level whose file fits the budget, or 1 if none does
+ */
+public record TargetSizeResult(byte[] data, int compressionLevel) {
+}
@@ -0,0 +1,38 @@
+package image.compress.imagecompress;
+
+/**
+ * The forward DCT coefficients of one image, before quantization.
+ * Colour conversion and the DCT do not depend on the compression level, so an image that is
+ * encoded at several levels only needs to be transformed once. Each component stores its blocks
+ * in raster order, each as 64 coefficients in zig-zag order, scaled like the output of the engine
+ * that produced them.
+ */
+public class TransformedImage {
+    final int width;
+    final int height;
+    final ChromaSubsampling sampling;
+    final int mcusWide;
+    final int mcusHigh;
+    // The engine whose scale factors the coefficients carry
+    final ForwardDCT dct;
+    final float[][] coefficients;
+
+    TransformedImage(int width, int height, ChromaSubsampling sampling, int mcusWide, int mcusHigh,
+                     ForwardDCT dct, float[][] coefficients) {
+        this.width = width;
+        this.height = height;
+        this.sampling = sampling;
+        this.mcusWide = mcusWide;
+        this.mcusHigh = mcusHigh;
+        this.dct = dct;
+        this.coefficients = coefficients;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,179 @@
+package image.compress.imagecompress;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+
+/**
+ * The AAN DCT of {@link AanDCT} in single precision, eight lanes at a time with the Vector API.
+ * Each vector holds one row of the block. The row transforms are done as a matrix product: every output row
+ * is the sum of the eight columns of the 1D AAN matrix, each multiplied by one sample of the input row.
+ * The column transforms then run the AAN flow graph on whole rows, so all eight columns are done at once and
+ * the block never has to be transposed. The output carries the same scale factors as {@link AanDCT}.
+ * <p>
+ * Only use this class when {@link VectorSupport#AVAILABLE} is set.
+ */
+class VectorAanDCT implements ForwardDCT {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_256;
+    // Row n holds column n of the 1D AAN transform matrix: the weight of input sample n for every output
+    private static final float[] COLUMNS = aanColumns();
+    // Minus the row transform of a row of 128s, which does the level shift after the row transform
+    private static final float[] LEVEL_SHIFT = levelShift();
+    private static final float[] NO_SHIFT = new float[BLOCK_SIZE];
+
+    private final AanDCT scalar = new AanDCT();
+    // The block in single precision between the passes. No vector is passed between methods: one that leaves
+    // a method that is not inlined gets boxed.
+    private final ThreadLocal<float[]> rows = ThreadLocal.withInitial(() -> new float[BLOCK_SIZE * BLOCK_SIZE]);
+
+    static boolean isSupported() {
+        return FloatVector.SPECIES_PREFERRED.vectorBitSize() >= FLOATS.vectorBitSize();
+    }
+
+    /**
+     * Builds the 1D AAN matrix by transforming the unit vectors with the scalar flow graph,
+     * so both engines scale their output the same way.
+     */
+    private static float[] aanColumns() {
+        float[] columns = new float[BLOCK_SIZE * BLOCK_SIZE];
+        AanDCT aan = new AanDCT();
+        for (int n = 0; n < BLOCK_SIZE; n++) {
+            // A block whose first row is the unit vector n; its first row transforms into column n
+            double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
+            block[n] = 1;
+            aan.transformRows(block);
+            for (int u = 0; u < BLOCK_SIZE; u++) {
+                columns[n * BLOCK_SIZE + u] = (float) block[u];
+            }
+        }
+        return columns;
+    }
+
+    private static float[] levelShift() {
+        float[] shift = new float[BLOCK_SIZE];
+        for (int n = 0; n < BLOCK_SIZE; n++) {
+            for (int u = 0; u < BLOCK_SIZE; u++) {
+                shift[u] -= 128 * COLUMNS[n * BLOCK_SIZE + u];
+            }
+        }
+        return shift;
+    }
+
+    @Override
+    public void transform(double[] block) {
+        float[] samples = rows.get();
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) block[i];
+        }
+        transformRows(samples, 0, BLOCK_SIZE, NO_SHIFT, samples);
+        transformColumns(samples, block);
+    }
+
+    /**
+     * Reads the samples straight from the plane, without going through a block of doubles first.
+     * The level shift is linear, so it is applied as part of the row transforms.
+     */
+    @Override
+    public void transform(float[] samples, int offset, int stride, double[] block) {
+        float[] transformed = rows.get();
+        transformRows(samples, offset, stride, LEVEL_SHIFT, transformed);
+        transformColumns(transformed, block);
+    }
+
+    /**
+     * Transforms the rows as a matrix product: every output row is the sum of the columns of the 1D matrix,
+     * each multiplied by one sample of the input row.
+     *
+     * @param shift  added to every row, to level shift the samples
+     * @param output receives the rows; may be the samples, as every row is read before it is written
+     */
+    private static void transformRows(float[] samples, int offset, int stride, float[] shift, float[] output) {
+        FloatVector rowShift = FloatVector.fromArray(FLOATS, shift, 0);
+        FloatVector column0 = FloatVector.fromArray(FLOATS, COLUMNS, 0);
+        FloatVector column1 = FloatVector.fromArray(FLOATS, COLUMNS, BLOCK_SIZE);
+        FloatVector column2 = FloatVector.fromArray(FLOATS, COLUMNS, 2 * BLOCK_SIZE);
+        FloatVector column3 = FloatVector.fromArray(FLOATS, COLUMNS, 3 * BLOCK_SIZE);
+        FloatVector column4 = FloatVector.fromArray(FLOATS, COLUMNS, 4 * BLOCK_SIZE);
+        FloatVector column5 = FloatVector.fromArray(FLOATS, COLUMNS, 5 * BLOCK_SIZE);
+        FloatVector column6 = FloatVector.fromArray(FLOATS, COLUMNS, 6 * BLOCK_SIZE);
+        FloatVector column7 = FloatVector.fromArray(FLOATS, COLUMNS, 7 * BLOCK_SIZE);
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            int index = offset + row * stride;
+            FloatVector sum = column0.fma(FloatVector.broadcast(FLOATS, samples[index]), rowShift);
+            sum = column1.fma(FloatVector.broadcast(FLOATS, samples[index + 1]), sum);
+            sum = column2.fma(FloatVector.broadcast(FLOATS, samples[index + 2]), sum);
+            sum = column3.fma(FloatVector.broadcast(FLOATS, samples[index + 3]), sum);
+            sum = column4.fma(FloatVector.broadcast(FLOATS, samples[index + 4]), sum);
+            sum = column5.fma(FloatVector.broadcast(FLOATS, samples[index + 5]), sum);
+            sum = column6.fma(FloatVector.broadcast(FLOATS, samples[index + 6]), sum);
+            sum = column7.fma(FloatVector.broadcast(FLOATS, samples[index + 7]), sum);
+            sum.intoArray(output, row * BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * Runs the flow graph of AanDCT.transformLine on whole rows, so all eight columns are transformed at once,
+     * and widens the coefficients into the block.
+     */
+    private static void transformColumns(float[] transformed, double[] block) {
+        FloatVector row0 = FloatVector.fromArray(FLOATS, transformed, 0);
+        FloatVector row1 = FloatVector.fromArray(FLOATS, transformed, BLOCK_SIZE);
+        FloatVector row2 = FloatVector.fromArray(FLOATS, transformed, 2 * BLOCK_SIZE);
+        FloatVector row3 = FloatVector.fromArray(FLOATS, transformed, 3 * BLOCK_SIZE);
+        FloatVector row4 = FloatVector.fromArray(FLOATS, transformed, 4 * BLOCK_SIZE);
+        FloatVector row5 = FloatVector.fromArray(FLOATS, transformed, 5 * BLOCK_SIZE);
+        FloatVector row6 = FloatVector.fromArray(FLOATS, transformed, 6 * BLOCK_SIZE);
+        FloatVector row7 = FloatVector.fromArray(FLOATS, transformed, 7 * BLOCK_SIZE);
+
+        FloatVector tmp0 = row0.add(row7);
+        FloatVector tmp7 = row0.sub(row7);
+        FloatVector tmp1 = row1.add(row6);
+        FloatVector tmp6 = row1.sub(row6);
+        FloatVector tmp2 = row2.add(row5);
+        FloatVector tmp5 = row2.sub(row5);
+        FloatVector tmp3 = row3.add(row4);
+        FloatVector tmp4 = row3.sub(row4);
+
+        // Even part
+        FloatVector tmp10 = tmp0.add(tmp3);
+        FloatVector tmp13 = tmp0.sub(tmp3);
+        FloatVector tmp11 = tmp1.add(tmp2);
+        FloatVector tmp12 = tmp1.sub(tmp2);
+
+        tmp10.add(tmp11).intoArray(transformed, 0);
+        tmp10.sub(tmp11).intoArray(transformed, 4 * BLOCK_SIZE);
+
+        FloatVector z1 = tmp12.add(tmp13).mul(0.707106781f);
+        tmp13.add(z1).intoArray(transformed, 2 * BLOCK_SIZE);
+        tmp13.sub(z1).intoArray(transformed, 6 * BLOCK_SIZE);
+
+        // Odd part
+        tmp10 = tmp4.add(tmp5);
+        tmp11 = tmp5.add(tmp6);
+        tmp12 = tmp6.add(tmp7);
+
+        FloatVector z5 = tmp10.sub(tmp12).mul(0.382683433f);
+        FloatVector z2 = tmp10.mul(0.541196100f).add(z5);
+        FloatVector z4 = tmp12.mul(1.306562965f).add(z5);
+        FloatVector z3 = tmp11.mul(0.707106781f);
+
+        FloatVector z11 = tmp7.add(z3);
+        FloatVector z13 = tmp7.sub(z3);
+
+        z13.add(z2).intoArray(transformed, 5 * BLOCK_SIZE);
+        z13.sub(z2).intoArray(transformed, 3 * BLOCK_SIZE);
+        z11.add(z4).intoArray(transformed, BLOCK_SIZE);
+        z11.sub(z4).intoArray(transformed, 7 * BLOCK_SIZE);
+
+        // A plain loop, which the JIT vectorizes by itself
+        for (int i = 0; i < block.length; i++) {
+            block[i] = transformed[i];
+        }
+    }
+
+    @Override
+    public double[] outputScale() {
+        return scalar.outputScale();
+    }
+}
@@ -0,0 +1,80 @@
+package image.compress.imagecompress;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static image.compress.imagecompress.ColorConverter.CB_BLUE;
+import static image.compress.imagecompress.ColorConverter.CB_GREEN;
+import static image.compress.imagecompress.ColorConverter.CB_RED;
+import static image.compress.imagecompress.ColorConverter.CR_BLUE;
+import static image.compress.imagecompress.ColorConverter.CR_GREEN;
+import static image.compress.imagecompress.ColorConverter.CR_RED;
+import static image.compress.imagecompress.ColorConverter.INVERSE_SCALE;
+import static image.compress.imagecompress.ColorConverter.Y_BLUE;
+import static image.compress.imagecompress.ColorConverter.Y_GREEN;
+import static image.compress.imagecompress.ColorConverter.Y_RED;
+
+/**
+ * The colour transform of {@link ColorConverter} on eight pixels at a time.
+ * It does the same integer sums and the same float operations in the same order, so the results are identical
+ * to the scalar code. Chroma is computed per pixel; the converter adds it up into the subsampled planes.
+ * <p>
+ * Only use this class when {@link VectorSupport#AVAILABLE} is set.
+ */
+final class VectorColorConversion {
+    // The same shape as the vectors of VectorAanDCT, even where the hardware has wider ones. Float vectors of two
+    // shapes make the calls inside the Vector API polymorphic, and C2 then boxes the vectors of the DCT.
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_256;
+    private static final VectorSpecies<Float> FLOATS = INTS.withLanes(float.class);
+
+    private VectorColorConversion() {
+    }
+
+    /**
+     * Converts one row of 0xRRGGBB pixels. The pixels after the last whole vector are converted one at a time.
+     *
+     * @param luma        receives the luma values from {@code lumaOffset} on
+     * @param blue        receives the blue-difference chroma of every pixel from index 0 on, or {@code null}
+     *                    to compute luma only
+     * @param red         receives the red-difference chroma of every pixel from index 0 on
+     * @param scale       the factor of the fixed point chroma sums
+     * @param offsetShare added to the scaled chroma
+     */
+    static void convertRow(int[] rgb, int offset, int width, float[] luma, int lumaOffset,
+                           float[] blue, float[] red, float scale, float offsetShare) {
+        int x = 0;
+        for (int bound = INTS.loopBound(width); x < bound; x += INTS.length()) {
+            IntVector pixels = IntVector.fromArray(INTS, rgb, offset + x);
+            IntVector redSamples = pixels.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector greenSamples = pixels.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector blueSamples = pixels.and(0xFF);
+
+            IntVector lumaSum = redSamples.mul(Y_RED).add(greenSamples.mul(Y_GREEN)).add(blueSamples.mul(Y_BLUE));
+            toFloat(lumaSum).mul(INVERSE_SCALE).intoArray(luma, lumaOffset + x);
+            if (blue != null) {
+                IntVector blueSum = redSamples.mul(CB_RED).add(greenSamples.mul(CB_GREEN)).add(blueSamples.mul(CB_BLUE));
+                toFloat(blueSum).mul(scale).add(offsetShare).intoArray(blue, x);
+                IntVector redSum = redSamples.mul(CR_RED).add(greenSamples.mul(CR_GREEN)).add(blueSamples.mul(CR_BLUE));
+                toFloat(redSum).mul(scale).add(offsetShare).intoArray(red, x);
+            }
+        }
+        // The pixels that do not fill a whole vector
+        for (; x < width; x++) {
+            int pixel = rgb[offset + x];
+            int redSample = (pixel >> 16) & 0xFF;
+            int greenSample = (pixel >> 8) & 0xFF;
+            int blueSample = pixel & 0xFF;
+            luma[lumaOffset + x] = (Y_RED * redSample + Y_GREEN * greenSample + Y_BLUE * blueSample) * INVERSE_SCALE;
+            if (blue != null) {
+                blue[x] = (CB_RED * redSample + CB_GREEN * greenSample + CB_BLUE * blueSample) * scale + offsetShare;
+                red[x] = (CR_RED * redSample + CR_GREEN * greenSample + CR_BLUE * blueSample) * scale + offsetShare;
+            }
+        }
+    }
+
+    private static FloatVector toFloat(IntVector sums) {
+        return (FloatVector) sums.convertShape(VectorOperators.I2F, FLOATS, 0);
+    }
+}
@@ -0,0 +1,37 @@
+package image.compress.imagecompress;
+
+/**
+ * Decides at startup whether the vectorized code paths can be used. They need the incubating
+ * {@code jdk.incubator.vector} module, which is only resolved when the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}, and vectors of at least 256 bits in hardware; without them the
+ * Vector API falls back to plain Java code that is much slower than the scalar paths.
+ * The vector paths can be turned off with {@code -Dimagecompress.vector=false}, for comparing them.
+ */
+final class VectorSupport {
+    static final boolean AVAILABLE = detect();
+
+    private VectorSupport() {
+    }
+
+    private static boolean detect() {
+        if (!Boolean.parseBoolean(System.getProperty("imagecompress.vector", "true"))) {
+            return false;
+        }
+        // Checked first, so no class of the module is touched when it is missing
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorAanDCT.isSupported();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the vectorized AAN DCT if it is available, otherwise the scalar one, which has the same output scale
+     */
+    static ForwardDCT aanDct() {
+        return AVAILABLE ? new VectorAanDCT() : new AanDCT();
+    }
+}
@@ -3,6 +3,9 @@ module image.compress.imagecompress {
     requires javafx.fxml;
     requires javafx.swing;
     requires java.logging;
+    requires jdk.jfr;
+    requires static jdk.incubator.vector;
+    requires jdk.httpserver;
 
 
     opens image.compress.imagecompress to javafx.fxml;
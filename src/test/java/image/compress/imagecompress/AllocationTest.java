@@ -0,0 +1,153 @@
+package image.compress.imagecompress;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that the stages of an encode allocate nothing per block once they are warm. Each stage runs on one thread
+ * over a small and a large image, so what it allocates per image cancels out and only what it allocates per block
+ * remains. The images are converted with the vectorized colour conversion first, like in an encode, as its vectors
+ * change how the JIT compiles the vectorized DCT.
+ */
+class AllocationTest {
+    private static final int QUALITY = 80;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int SMALL_SIZE = 256;
+    private static final int LARGE_SIZE = 1024;
+    // Far below one array per block, which would be at least 16 bytes
+    private static final double MAX_BYTES_PER_BLOCK = 1;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeAll
+    static void requireAllocationCounter() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+                "the JVM does not count allocated bytes");
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "the JVM does not count allocated bytes");
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * An image prepared up to one stage of the encoder, so the stages can be run again and again.
+     */
+    private static final class Encode {
+        final JpegCompress jpegCompress = new JpegCompress();
+        final Plane[] planes;
+        final QuantizedComponent[] components;
+        final Quantizer[] quantizers;
+        final QuantizedImage quantized;
+        final int blocks;
+
+        Encode(DctAlgorithm algorithm, int size) {
+            jpegCompress.setParallelism(1);
+            jpegCompress.setDctAlgorithm(algorithm);
+            ChromaSubsampling sampling = ChromaSubsampling.YUV420;
+            jpegCompress.setChromaSubsampling(sampling);
+            int mcus = size / (sampling.horizontalFactor * 8);
+            planes = JpegCompress.createPlanes(size, size, sampling, mcus, mcus);
+            components = JpegCompress.createComponents(sampling, mcus, mcus);
+            ColorConverter.convert(image(size), sampling, planes[0], planes[1], planes[2]);
+            quantizers = new Quantizer[]{jpegCompress.quantizer(JpegCompress.LUMINANCE, QUALITY),
+                    jpegCompress.quantizer(JpegCompress.CHROMINANCE, QUALITY)};
+            transformAndQuantize();
+            quantized = new QuantizedImage(size, size, mcus, mcus, components, quantizers);
+            int count = 0;
+            for (QuantizedComponent component : components) {
+                count += component.blocksWide * component.blocksHigh;
+            }
+            blocks = count;
+        }
+
+        void transformAndQuantize() {
+            jpegCompress.transformAndQuantize(planes, components, quantizers, new DctDownscaler[0], new Plane[0][]);
+        }
+
+        void entropyCode() {
+            try {
+                jpegCompress.compressImage(quantized, OutputStream.nullOutputStream());
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        int fileSize() {
+            return jpegCompress.compressImage(quantized).length;
+        }
+    }
+
+    private static BufferedImage image(int size) {
+        Random random = new Random(11);
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int level = Math.min(255, (x + y) * 255 / (2 * size) + random.nextInt(32));
+                image.setRGB(x, y, level << 16 | (255 - level) << 8 | (x / 32 % 2) * 255);
+            }
+        }
+        return image;
+    }
+
+    private static long allocatedBytes(Runnable stage) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            stage.run();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        stage.run();
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    /**
+     * @param fileBytes the size of the file, which is a little larger than its scan
+     * @return the bytes of the buffers a BitWriter allocates as it doubles its capacity to hold the scan
+     */
+    private static long bufferGrowth(int fileBytes) {
+        long total = 0;
+        for (long capacity = 1 << 16; capacity < fileBytes; ) {
+            capacity *= 2;
+            // The array header
+            total += capacity + 16;
+        }
+        return total;
+    }
+
+    /**
+     * @param allowance what the large image may allocate on top of the small one, whatever its number of blocks
+     */
+    private static void assertNoAllocationPerBlock(String stage, Encode small, Encode large,
+                                                   long smallBytes, long largeBytes, long allowance) {
+        double perBlock = (largeBytes - smallBytes - allowance) / (double) (large.blocks - small.blocks);
+        assertTrue(perBlock < MAX_BYTES_PER_BLOCK, stage + " allocates " + perBlock + " bytes per block ("
+                + smallBytes + " bytes for " + small.blocks + " blocks, " + largeBytes + " bytes for "
+                + large.blocks + " blocks)");
+    }
+
+    @Test
+    void transformAndQuantizeAllocateNothingPerBlock() {
+        for (DctAlgorithm algorithm : DctAlgorithm.values()) {
+            Encode small = new Encode(algorithm, SMALL_SIZE);
+            Encode large = new Encode(algorithm, LARGE_SIZE);
+            assertNoAllocationPerBlock(algorithm.name(), small, large,
+                    allocatedBytes(small::transformAndQuantize), allocatedBytes(large::transformAndQuantize), 0);
+        }
+    }
+
+    @Test
+    void entropyCodingAllocatesNothingPerBlock() {
+        Encode small = new Encode(DctAlgorithm.AAN, SMALL_SIZE);
+        Encode large = new Encode(DctAlgorithm.AAN, LARGE_SIZE);
+        // The scan is collected in a BitWriter, whose buffer grows with the file and not with the blocks
+        assertNoAllocationPerBlock("entropy coding", small, large,
+                allocatedBytes(small::entropyCode), allocatedBytes(large::entropyCode),
+                bufferGrowth(large.fileSize()) - bufferGrowth(small.fileSize()));
+    }
+}
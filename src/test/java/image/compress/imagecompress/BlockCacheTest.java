@@ -0,0 +1,74 @@
+package image.compress.imagecompress;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the block cache keeps the blocks that are hit and lets the others go.
+ */
+class BlockCacheTest {
+    private static final int CAPACITY = 4;
+
+    private final Quantizer quantizer = new JpegCompress().quantizer(JpegCompress.LUMINANCE, 80);
+    private final BlockCache cache = new BlockCache();
+    private final short[] output = new short[BLOCK_LENGTH];
+
+    /**
+     * @return the samples of a block that differs from the blocks of other values
+     */
+    private static float[] block(int value) {
+        float[] samples = new float[BLOCK_LENGTH];
+        // Not uniform, like the blocks the encoder looks up
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            samples[i] = value + (i % 2);
+        }
+        return samples;
+    }
+
+    private boolean get(int value) {
+        return cache.get(quantizer, block(value), 0, JpegCompress.BLOCK_SIZE, output, 0);
+    }
+
+    private void add(int value) {
+        assertFalse(get(value), "block " + value + " was already cached");
+        short[] coefficients = new short[BLOCK_LENGTH];
+        Arrays.fill(coefficients, (short) value);
+        cache.put(coefficients, 0);
+    }
+
+    @Test
+    void blocksThatAreHitStay() {
+        cache.setCapacity(CAPACITY);
+        add(0);
+        // Many times the capacity of other blocks go through, while block 0 keeps coming back
+        for (int value = 1; value <= 10 * CAPACITY; value++) {
+            add(value);
+            assertTrue(get(0), "block 0 was evicted by block " + value);
+            short[] expected = new short[BLOCK_LENGTH];
+            assertArrayEquals(expected, output);
+        }
+        // The blocks that were not hit again were replaced
+        assertFalse(get(1));
+        assertTrue(get(10 * CAPACITY));
+    }
+
+    @Test
+    void blocksThatAreNotHitMakeRoom() {
+        cache.setCapacity(CAPACITY);
+        for (int value = 0; value < 2 * CAPACITY; value++) {
+            add(value);
+        }
+        for (int value = 0; value < CAPACITY; value++) {
+            assertFalse(get(value), "block " + value);
+        }
+        for (int value = CAPACITY; value < 2 * CAPACITY; value++) {
+            assertTrue(get(value), "block " + value);
+        }
+    }
+}
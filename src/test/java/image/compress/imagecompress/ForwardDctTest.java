@@ -0,0 +1,143 @@
+package image.compress.imagecompress;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static image.compress.imagecompress.JpegCompress.BLOCK_SIZE;
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the fast DCT engines against the direct formula of {@link ReferenceDCT}.
+ */
+class ForwardDctTest {
+    // Coefficients reach about 1000 in magnitude. The AAN constants have 9 decimal places, like those of the IJG,
+    // which leaves errors of a few 1e-9.
+    private static final double TOLERANCE = 1e-6;
+    private static final int RANDOM_BLOCKS = 2000;
+    private static final int[] LEVELS = {1, 10, 50, 80, 95, 99};
+
+    private static final ForwardDCT REFERENCE = new ReferenceDCT();
+    private static final ForwardDCT[] ENGINES = {new SeparableDCT(), new AanDCT()};
+
+    /**
+     * Random blocks and blocks at the edges of the sample range, centred around zero like the encoder does.
+     */
+    private static List<double[]> blocks() {
+        List<double[]> blocks = new ArrayList<>();
+        double[] black = new double[BLOCK_LENGTH];
+        Arrays.fill(black, -128);
+        blocks.add(black);
+        double[] white = new double[BLOCK_LENGTH];
+        Arrays.fill(white, 127);
+        blocks.add(white);
+        blocks.add(new double[BLOCK_LENGTH]);
+        double[] checkerboard = new double[BLOCK_LENGTH];
+        double[] impulse = new double[BLOCK_LENGTH];
+        double[] ramp = new double[BLOCK_LENGTH];
+        for (int row = 0; row < BLOCK_SIZE; row++) {
+            for (int column = 0; column < BLOCK_SIZE; column++) {
+                checkerboard[row * BLOCK_SIZE + column] = ((row + column) & 1) == 0 ? -128 : 127;
+                ramp[row * BLOCK_SIZE + column] = (row + column) * 255 / 14.0 - 128;
+            }
+        }
+        impulse[0] = 127;
+        blocks.add(checkerboard);
+        blocks.add(impulse);
+        blocks.add(ramp);
+
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_BLOCKS; i++) {
+            double[] block = new double[BLOCK_LENGTH];
+            for (int j = 0; j < BLOCK_LENGTH; j++) {
+                block[j] = random.nextInt(256) - 128;
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private static double[] transform(ForwardDCT engine, double[] samples) {
+        double[] block = samples.clone();
+        engine.transform(block);
+        return block;
+    }
+
+    @Test
+    void enginesMatchTheReferenceAfterRemovingTheirScale() {
+        for (ForwardDCT engine : ENGINES) {
+            double[] scale = engine.outputScale();
+            for (double[] samples : blocks()) {
+                double[] expected = transform(REFERENCE, samples);
+                double[] actual = transform(engine, samples);
+                for (int i = 0; i < BLOCK_LENGTH; i++) {
+                    assertEquals(expected[i], actual[i] / scale[i], TOLERANCE,
+                            engine.getClass().getSimpleName() + ", coefficient " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void transformFromPlaneMatchesTransformOfCentredBlock() {
+        Random random = new Random(7);
+        Plane plane = new Plane(24, 16);
+        for (int i = 0; i < plane.samples.length; i++) {
+            plane.samples[i] = random.nextInt(256);
+        }
+        for (ForwardDCT engine : ENGINES) {
+            double[] expected = new double[BLOCK_LENGTH];
+            for (int row = 0; row < BLOCK_SIZE; row++) {
+                for (int column = 0; column < BLOCK_SIZE; column++) {
+                    expected[row * BLOCK_SIZE + column] = plane.samples[plane.blockOffset(1, 2)
+                            + row * plane.stride + column] - 128;
+                }
+            }
+            engine.transform(expected);
+            double[] actual = new double[BLOCK_LENGTH];
+            engine.transform(plane.samples, plane.blockOffset(1, 2), plane.stride, actual);
+            assertArrayEquals(expected, actual, TOLERANCE, engine.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    void quantizedCoefficientsAreIdenticalAtEveryLevel() {
+        List<double[]> blocks = blocks();
+        for (DctAlgorithm algorithm : new DctAlgorithm[]{DctAlgorithm.SEPARABLE, DctAlgorithm.AAN}) {
+            for (String type : new String[]{JpegCompress.LUMINANCE, JpegCompress.CHROMINANCE}) {
+                for (int level : LEVELS) {
+                    JpegCompress reference = new JpegCompress();
+                    reference.setDctAlgorithm(DctAlgorithm.REFERENCE);
+                    JpegCompress fast = new JpegCompress();
+                    fast.setDctAlgorithm(algorithm);
+                    Quantizer expectedQuantizer = reference.quantizer(type, level);
+                    Quantizer actualQuantizer = fast.quantizer(type, level);
+
+                    short[] expected = new short[BLOCK_LENGTH];
+                    short[] actual = new short[BLOCK_LENGTH];
+                    for (double[] samples : blocks) {
+                        double[] coefficients = transform(REFERENCE, samples);
+                        expectedQuantizer.quantize(coefficients, expected, 0);
+                        actualQuantizer.quantize(transform(algorithm.engine(), samples), actual, 0);
+                        for (int i = 0; i < BLOCK_LENGTH; i++) {
+                            // An exact half, as the DC of integer samples often is, rounds either way depending
+                            // on the last bit of the computation, in the reference as well
+                            double quotient = Math.abs(coefficients[i] / expectedQuantizer.table[i]);
+                            if (Math.abs(quotient - Math.floor(quotient) - 0.5) < TOLERANCE) {
+                                continue;
+                            }
+                            int position = JpegCompress.ZIGZAG_ORDER[i];
+                            assertEquals(expected[position], actual[position],
+                                    algorithm + " " + type + " at level " + level + ", coefficient " + i);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
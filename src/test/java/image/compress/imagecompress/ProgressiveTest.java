@@ -0,0 +1,110 @@
+package image.compress.imagecompress;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that progressive files decode like the sequential file of the same image, and show a first image sooner.
+ */
+class ProgressiveTest {
+    private static final int QUALITY = 80;
+    // Both files hold the same coefficients, so only the decoder's rounding could make them differ
+    private static final int MAX_DIFFERENCE = 2;
+    private static final ScanScript PARSED = ScanScript.parse("""
+            # DC first, then the luma AC without its lowest bit, the chroma AC, and the last bit of the luma AC
+            0,1,2: 0-0, 0, 0;
+            0: 1-63, 0, 1;
+            1: 1-63, 0, 0;
+            2: 1-63, 0, 0;
+            0: 1-63, 1, 0;
+            """);
+    private static final ScanScript[] SCRIPTS =
+            {ScanScript.SPECTRAL_SELECTION, ScanScript.SUCCESSIVE_APPROXIMATION, PARSED};
+
+    private static BufferedImage image(int width, int height) {
+        Random random = new Random(5);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = Math.min(255, x * 255 / width + random.nextInt(16));
+                int green = Math.min(255, y * 255 / height + random.nextInt(16));
+                int blue = (x / 16 + y / 16) % 2 == 0 ? 40 : 200;
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage decode(byte[] file) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(file));
+        assertNotNull(image);
+        return image;
+    }
+
+    /**
+     * @return the offset of the first SOS marker
+     */
+    private static int firstScan(byte[] file) {
+        // Markers after SOI are followed by their length, up to the first scan
+        int offset = 2;
+        while ((file[offset + 1] & 0xFF) != 0xDA) {
+            offset += 2 + ((file[offset + 2] & 0xFF) << 8 | (file[offset + 3] & 0xFF));
+        }
+        return offset;
+    }
+
+    /**
+     * @return the offset of the first marker after the entropy-coded data of the first scan
+     */
+    private static int firstScanEnd(byte[] file) {
+        int sos = firstScan(file);
+        int offset = sos + 2 + ((file[sos + 2] & 0xFF) << 8 | (file[sos + 3] & 0xFF));
+        // Stuffed zeros and restart markers are part of the scan
+        while (!((file[offset] & 0xFF) == 0xFF && (file[offset + 1] & 0xFF) != 0
+                && ((file[offset + 1] & 0xFF) < 0xD0 || (file[offset + 1] & 0xFF) > 0xD7))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    @Test
+    void progressiveFilesDecodeLikeTheSequentialFile() throws IOException {
+        BufferedImage image = image(203, 151);
+        for (ChromaSubsampling sampling : new ChromaSubsampling[]{ChromaSubsampling.YUV444, ChromaSubsampling.YUV420}) {
+            JpegCompress jpegCompress = new JpegCompress();
+            jpegCompress.setChromaSubsampling(sampling);
+            byte[] sequential = jpegCompress.compressImage(image, QUALITY);
+            BufferedImage expected = decode(sequential);
+            for (ScanScript script : SCRIPTS) {
+                jpegCompress.setScanScript(script);
+                byte[] progressive = jpegCompress.compressImage(image, QUALITY);
+                BufferedImage actual = decode(progressive);
+                assertEquals(expected.getWidth(), actual.getWidth());
+                assertEquals(expected.getHeight(), actual.getHeight());
+                for (int y = 0; y < expected.getHeight(); y++) {
+                    for (int x = 0; x < expected.getWidth(); x++) {
+                        int expectedRgb = expected.getRGB(x, y);
+                        int actualRgb = actual.getRGB(x, y);
+                        for (int shift = 0; shift < 24; shift += 8) {
+                            assertTrue(Math.abs((expectedRgb >> shift & 0xFF) - (actualRgb >> shift & 0xFF))
+                                    <= MAX_DIFFERENCE, sampling + " at " + x + "," + y);
+                        }
+                    }
+                }
+
+                // The first scan only needs the tables it uses, and it ends long before the sequential scan
+                assertTrue(firstScan(progressive) < firstScan(sequential), sampling + ": first SOS");
+                assertTrue(firstScanEnd(progressive) < firstScanEnd(sequential) / 2, sampling + ": first scan");
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package image.compress.imagecompress;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static image.compress.imagecompress.QuantizedComponent.BLOCK_LENGTH;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that the vectorized colour conversion and DCT give the same results as the scalar code they replace.
+ */
+class VectorPathTest {
+    private static final int[] LEVELS = {10, 50, 80, 95, 99};
+    // Widths around the vector lengths, so the rows end in partial vectors that are left to the scalar code
+    private static final int[] WIDTHS = {1, 7, 9, 15, 17, 31, 33, 67, 257};
+    private static final ChromaSubsampling[] SAMPLINGS =
+            {ChromaSubsampling.YUV444, ChromaSubsampling.YUV422, ChromaSubsampling.YUV420};
+    // The vectorized DCT works in float, whose error in a coefficient stays far below this
+    private static final double FLOAT_TOLERANCE = 1e-3;
+
+    @BeforeAll
+    static void requireVectorApi() {
+        assumeTrue(VectorSupport.AVAILABLE, "the Vector API is not available on this machine");
+    }
+
+    private static BufferedImage image(int type, int width, int height) {
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    private static Plane[] convert(BufferedImage image, ChromaSubsampling sampling, boolean vectorized) {
+        Plane[] planes = JpegCompress.createPlanes(image.getWidth(), image.getHeight(), sampling,
+                (image.getWidth() + sampling.horizontalFactor * 8 - 1) / (sampling.horizontalFactor * 8),
+                (image.getHeight() + sampling.verticalFactor * 8 - 1) / (sampling.verticalFactor * 8));
+        ColorConverter.convert(image, sampling, planes[0], planes[1], planes[2], vectorized);
+        return planes;
+    }
+
+    @Test
+    void colorConversionMatchesScalarConversion() {
+        for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR}) {
+            for (ChromaSubsampling sampling : SAMPLINGS) {
+                for (int width : WIDTHS) {
+                    BufferedImage image = image(type, width, 11);
+                    Plane[] expected = convert(image, sampling, false);
+                    Plane[] actual = convert(image, sampling, true);
+                    for (int c = 0; c < expected.length; c++) {
+                        assertArrayEquals(expected[c].samples, actual[c].samples,
+                                "type " + type + ", " + sampling + ", width " + width + ", plane " + c);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void vectorDctQuantizesLikeScalarAan() {
+        Plane plane = new Plane(256, 256);
+        Random random = new Random(3);
+        for (int i = 0; i < plane.samples.length; i++) {
+            // Smooth areas with noise, as colour conversion leaves them
+            int x = i % plane.stride;
+            int y = i / plane.stride;
+            plane.samples[i] = Math.min(255, (x + y) / 2f + random.nextInt(64) + random.nextFloat());
+        }
+        ForwardDCT vector = DctAlgorithm.VECTOR.engine();
+        ForwardDCT scalar = DctAlgorithm.AAN.engine();
+        double[] scale = scalar.outputScale();
+        assertArrayEquals(scale, vector.outputScale());
+
+        JpegCompress jpegCompress = new JpegCompress();
+        jpegCompress.setDctAlgorithm(DctAlgorithm.AAN);
+        double[] expectedBlock = new double[BLOCK_LENGTH];
+        double[] actualBlock = new double[BLOCK_LENGTH];
+        short[] expected = new short[BLOCK_LENGTH];
+        short[] actual = new short[BLOCK_LENGTH];
+        int compared = 0;
+        int skipped = 0;
+        for (String type : new String[]{JpegCompress.LUMINANCE, JpegCompress.CHROMINANCE}) {
+            for (int level : LEVELS) {
+                Quantizer quantizer = jpegCompress.quantizer(type, level);
+                for (int blockRow = 0; blockRow < plane.paddedHeight / 8; blockRow++) {
+                    for (int blockColumn = 0; blockColumn < plane.blocksWide(); blockColumn++) {
+                        int offset = plane.blockOffset(blockRow, blockColumn);
+                        scalar.transform(plane.samples, offset, plane.stride, expectedBlock);
+                        vector.transform(plane.samples, offset, plane.stride, actualBlock);
+                        quantizer.quantize(expectedBlock, expected, 0);
+                        quantizer.quantize(actualBlock, actual, 0);
+                        for (int i = 0; i < BLOCK_LENGTH; i++) {
+                            // Within the float error of a rounding boundary, either side is right
+                            double quotient = Math.abs(expectedBlock[i] / (quantizer.table[i] * scale[i]));
+                            if (Math.abs(quotient - Math.floor(quotient) - 0.5) < FLOAT_TOLERANCE) {
+                                skipped++;
+                                continue;
+                            }
+                            compared++;
+                            int position = JpegCompress.ZIGZAG_ORDER[i];
+                            assertEquals(expected[position], actual[position],
+                                    type + " at level " + level + ", block " + blockRow + "," + blockColumn
+                                            + ", coefficient " + i);
+                        }
+                    }
+                }
+            }
+        }
+        // The boundaries must not hide the comparison
+        assertTrue(skipped < compared / 100, skipped + " of " + compared + " coefficients skipped");
+    }
+}